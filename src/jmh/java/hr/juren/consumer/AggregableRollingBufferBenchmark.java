@@ -3,9 +3,17 @@ package hr.juren.consumer;
 import hr.juren.consumer.BSRollingBuffer.BSBuffer;
 import org.openjdk.jmh.annotations.*;
 import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.infra.ThreadParams;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.LongUnaryOperator;
 import java.util.function.Supplier;
 
 import static java.util.concurrent.TimeUnit.SECONDS;
@@ -57,6 +65,108 @@ public class AggregableRollingBufferBenchmark {
         bh.consume(sum);
     }
 
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void rollingBufferReduce(ReadState state, Blackhole bh) {
+        bh.consume(state.buffer.reduceToLong(1_202_000L, Long.MAX_VALUE, 0, (acc, b) -> acc + b.sum));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void rollingBufferBoxedReduce(ReadState state, Blackhole bh) {
+        bh.consume(state.buffer.reduce(1_202_000L, Long.MAX_VALUE, 0L, (acc, b) -> acc + b.sum));
+    }
+
+    @State(Scope.Thread)
+    public static class ColumnarReadState {
+        @Param({"64", "256", "1024", "4096", "16384", "65536", "262144", "1048576"})
+        int maxBuckets;
+
+        ColumnarBuffer buffer;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            buffer = new ColumnarBuffer(maxBuckets, maxBuckets - 2, 1000);
+
+            long base = 1_202_000L;
+            for (int i = 0; i < maxBuckets; i++) {
+                buffer.update(base + (i * 1000), i);
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void columnarBufferIteration(ColumnarReadState state, Blackhole bh) {
+        var it = state.buffer.iterator(1_202_000L);
+        double sum = 0;
+        while (it.hasNext()) {
+            sum += it.next().sum();
+        }
+        bh.consume(sum);
+    }
+
+    // same window as columnarBufferIteration, reduced over the columns (two runs, the ring has wrapped)
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public double columnarWindowSum(ColumnarReadState state) {
+        return state.buffer.windowSum(1_202_000L, Long.MAX_VALUE);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public double columnarWindowMax(ColumnarReadState state) {
+        return state.buffer.windowMax(1_202_000L, Long.MAX_VALUE);
+    }
+
+    // the kernels themselves, Vector API (when jdk.incubator.vector is resolved) against the scalar loops
+    @State(Scope.Thread)
+    public static class KernelState {
+        @Param({"64", "256", "1024", "4096", "16384", "65536", "262144", "1048576"})
+        int size;
+
+        double[] column;
+        ColumnKernels scalar = new ColumnKernels.Scalar();
+
+        @Setup(Level.Trial)
+        public void setup() {
+            column = new Random(1).doubles(size).toArray();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public double kernelSum(KernelState state) {
+        return ColumnKernels.INSTANCE.sum(state.column, 0, state.size);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public double scalarSum(KernelState state) {
+        return state.scalar.sum(state.column, 0, state.size);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public double kernelMax(KernelState state) {
+        return ColumnKernels.INSTANCE.max(state.column, 0, state.size);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public double scalarMax(KernelState state) {
+        return state.scalar.max(state.column, 0, state.size);
+    }
+
     // ============================================================================
     // 2. WRITE THROUGHPUT
     // ============================================================================
@@ -210,6 +320,530 @@ public class AggregableRollingBufferBenchmark {
 //        bh.consume(count);
 //    }
 
+    // ============================================================================
+    // 4. KEY CHURN - registry lookups with a steady stream of new keys
+    // ============================================================================
+
+    @State(Scope.Benchmark)
+    public static class KeyChurnState {
+        AggregableRollingBuffer<Long, TestBucket, TestValue> buffer;
+
+        @Setup(Level.Iteration)
+        public void setup() {
+            buffer = new AggregableRollingBuffer<>(TestBucket::new, 4, 4, 1000);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class KeyChurnThreadState {
+        // every 64th put introduces a new key, the rest hit a recently created one
+        static final int PUTS_PER_KEY_SHIFT = 6;
+
+        long keyPrefix;
+        long n;
+
+        @Setup(Level.Trial)
+        public void setup(ThreadParams params) {
+            keyPrefix = (long) params.getThreadIndex() << 40;
+        }
+
+        Long nextKey() {
+            return keyPrefix | (n >>> PUTS_PER_KEY_SHIFT);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void keyChurn1Thread(KeyChurnState state, KeyChurnThreadState thread) {
+        keyChurn(state, thread);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void keyChurn8Threads(KeyChurnState state, KeyChurnThreadState thread) {
+        keyChurn(state, thread);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public void keyChurn32Threads(KeyChurnState state, KeyChurnThreadState thread) {
+        keyChurn(state, thread);
+    }
+
+    private static void keyChurn(KeyChurnState state, KeyChurnThreadState thread) {
+        // keys are thread-private so each per-key buffer still has a single writer
+        Long key = thread.nextKey();
+        long ts = ++thread.n * 1000;
+        state.buffer.put(key, new TestValue((int) ts, ts));
+    }
+
+    // ============================================================================
+    // 5. WRITE CONTENTION - many writers on a single key
+    // ============================================================================
+
+    @State(Scope.Benchmark)
+    public static class ContendedWriteState {
+        BSBuffer<TestBucket, TestValue> buffer;
+        AtomicLong timestamp;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            timestamp = new AtomicLong(System.currentTimeMillis());
+            buffer = new BSBuffer<>(1024, 1024, 1000, TestBucket::new,
+                    BufferOptions.DEFAULT.withConcurrentWriters(true));
+        }
+    }
+
+    @Benchmark
+    @Threads(2)
+    public void contendedWrite2Threads(ContendedWriteState state) {
+        contendedWrite(state);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void contendedWrite4Threads(ContendedWriteState state) {
+        contendedWrite(state);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void contendedWrite8Threads(ContendedWriteState state) {
+        contendedWrite(state);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void contendedWrite16Threads(ContendedWriteState state) {
+        contendedWrite(state);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public void contendedWrite32Threads(ContendedWriteState state) {
+        contendedWrite(state);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void contendedWrite64Threads(ContendedWriteState state) {
+        contendedWrite(state);
+    }
+
+    private static void contendedWrite(ContendedWriteState state) {
+        // 1ms per write: a rollover every 1000 writes, the rest aggregate into the same bucket
+        long ts = state.timestamp.getAndIncrement();
+        state.buffer.update(new TestValue((int) ts, ts));
+    }
+
+    // ============================================================================
+    // 6. BATCH INGEST - putAll vs one put per value
+    // ============================================================================
+
+    @State(Scope.Thread)
+    public static class BatchState {
+        // 100 values per 1s period, so a batch crosses batchSize / 100 periods
+        static final long VALUE_STEP_MILLIS = 10;
+
+        @Param({"500", "1000", "5000"})
+        int batchSize;
+
+        AggregableRollingBuffer<String, TestBucket, TestValue> buffer;
+        TestValue[] values;
+        long[] base;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            buffer = new AggregableRollingBuffer<>(TestBucket::new, 1024, 1024, 1000);
+            base = new long[]{1_000_000L};
+            values = new TestValue[batchSize];
+            for (int i = 0; i < batchSize; i++)
+                values[i] = new BatchValue(i, i * VALUE_STEP_MILLIS, base);
+        }
+
+        void nextBatch() {
+            base[0] += batchSize * VALUE_STEP_MILLIS;
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void perValuePut(BatchState state) {
+        state.nextBatch();
+        for (var value : state.values)
+            state.buffer.put("key", value);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void batchPutAll(BatchState state) {
+        state.nextBatch();
+        state.buffer.putAll("key", state.values);
+    }
+
+    // ============================================================================
+    // 7. MIXED READ/WRITE - cost of per-bucket stamps for snapshot reads
+    // ============================================================================
+
+    @State(Scope.Group)
+    public static class MixedState {
+        @Param({"false", "true"})
+        boolean snapshotReads;
+
+        BSBuffer<TestBucket, TestValue> buffer;
+        long timestamp; // written by the single writer thread only
+
+        @Setup(Level.Trial)
+        public void setup() {
+            buffer = new BSBuffer<>(1024, 1024, 1000, TestBucket::new,
+                    BufferOptions.DEFAULT.withSnapshotReads(snapshotReads));
+            timestamp = 1_000_000L;
+            for (int i = 0; i < 1024 * 100; i++)
+                write();
+        }
+
+        void write() {
+            // 100 values per 1s period: mostly aggregates, a rollover every 100 writes
+            long ts = timestamp += 10;
+            buffer.update(new TestValue((int) ts, ts));
+        }
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public void mixedWriter(MixedState state) {
+        state.write();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    public long mixedReader(MixedState state) {
+        return state.snapshotReads
+                ? state.buffer.snapshotReduceToLong(0, Long.MAX_VALUE, 0, (acc, b) -> acc + b.getSum())
+                : state.buffer.reduceToLong(0, Long.MAX_VALUE, 0, (acc, b) -> acc + b.getSum());
+    }
+
+    // ============================================================================
+    // 8. STRIPED WRITES - hot key split into per-thread shards (compare with 5.)
+    // ============================================================================
+
+    @State(Scope.Benchmark)
+    public static class StripedWriteState {
+        StripedRollingBuffer<String, SumBucket, TestValue> buffer;
+        AtomicLong timestamp;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            timestamp = new AtomicLong(System.currentTimeMillis());
+            buffer = new StripedRollingBuffer<>(SumBucket::new, 1024, 1024, 1000,
+                    Runtime.getRuntime().availableProcessors());
+        }
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void stripedWrite8Threads(StripedWriteState state) {
+        stripedWrite(state);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public void stripedWrite32Threads(StripedWriteState state) {
+        stripedWrite(state);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void stripedWrite64Threads(StripedWriteState state) {
+        stripedWrite(state);
+    }
+
+    private static void stripedWrite(StripedWriteState state) {
+        long ts = state.timestamp.getAndIncrement();
+        state.buffer.put("hot", new TestValue((int) ts, ts));
+    }
+
+    // ============================================================================
+    // 9. FALSE SHARING - a writer and readers on two neighbouring buffers
+    // ============================================================================
+
+    @State(Scope.Group)
+    public static class NeighbourState {
+        BSBuffer<TestBucket, TestValue> written;
+        BSBuffer<TestBucket, TestValue> read;
+        long timestamp; // written by the single writer thread only
+
+        @Setup(Level.Trial)
+        public void setup() {
+            // allocated back to back: without padding the writer's sequence stores invalidate the line holding
+            // the fields every read of the other buffer loads
+            written = new BSBuffer<>(16, 16, 1000, TestBucket::new, BufferOptions.DEFAULT.withConcurrentWriters(true));
+            read = new BSBuffer<>(16, 16, 1000, TestBucket::new);
+            timestamp = 1_000_000L;
+            for (int i = 0; i < 16; i++)
+                read.update(new TestValue(i, timestamp + i * 1000L));
+        }
+    }
+
+    @Benchmark
+    @Group("neighbours")
+    @GroupThreads(1)
+    public void neighbourWriter(NeighbourState state) {
+        long ts = ++state.timestamp;
+        state.written.update(new TestValue((int) ts, ts));
+    }
+
+    @Benchmark
+    @Group("neighbours")
+    @GroupThreads(3)
+    public long neighbourReader(NeighbourState state) {
+        return state.read.reduceToLong(0, Long.MAX_VALUE, 0, (acc, b) -> acc + b.getSum());
+    }
+
+    // ============================================================================
+    // 10. CLOCK-STAMPED WRITES - period alignment and time source on the same-period path
+    // ============================================================================
+
+    @State(Scope.Thread)
+    public static class ClockedWriteState {
+        BSBuffer<TestBucket, TestValue> buffer;
+        TimeSource clock;
+        CoarseTimeSource coarse;
+
+        @Param({"1000", "1024"})
+        int periodMillis;
+
+        @Param({"system", "coarse"})
+        String timeSource;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            coarse = new CoarseTimeSource(1);
+            clock = timeSource.equals("coarse") ? coarse : TimeSource.SYSTEM;
+            // values stamped within one millisecond share a timestamp, lateness mode accepts them
+            buffer = new BSBuffer<>(64, 64, periodMillis, TestBucket::new,
+                    BufferOptions.DEFAULT.withAllowedLateness(periodMillis));
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            coarse.close();
+        }
+    }
+
+    @Benchmark
+    public void clockedWrite(ClockedWriteState state) {
+        long ts = state.clock.millis();
+        state.buffer.update(new TestValue((int) ts, ts));
+    }
+
+    // ============================================================================
+    // 11. CROSS-KEY QUERIES - top 100 of 200k keys, parallel scan vs one iterator per key
+    // ============================================================================
+
+    @State(Scope.Benchmark)
+    public static class CrossKeyState {
+        AggregableRollingBuffer<String, TestBucket, TestValue> buffer;
+        List<String> keys = new ArrayList<>();
+
+        @Setup(Level.Trial)
+        public void setup() {
+            buffer = new AggregableRollingBuffer<>(TestBucket::new, 10, 10, 60_000);
+            Random random = new Random(1);
+            for (int k = 0; k < 200_000; k++) {
+                String key = "tenant" + (k % 100) + "/" + k;
+                keys.add(key);
+                for (int minute = 0; minute < 10; minute++)
+                    buffer.put(key, new TestValue(random.nextInt(100), minute * 60_000L + 1));
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<KeyTotal<String>> crossKeyTopK(CrossKeyState state) {
+        return state.buffer.topK(100, k -> true, 300_000, Long.MAX_VALUE, 0, (acc, b) -> acc + b.getSum());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<KeyTotal<String>> crossKeyIteratorTopK(CrossKeyState state) {
+        var top = new PriorityQueue<KeyTotal<String>>(Comparator.comparingLong(KeyTotal::total));
+        for (String key : state.keys) {
+            long sum = 0;
+            for (var it = state.buffer.iterator(key, 300_000); it.hasNext(); )
+                sum += it.next().getSum();
+            top.add(new KeyTotal<>(key, sum));
+            if (top.size() > 100)
+                top.poll();
+        }
+        return new ArrayList<>(top);
+    }
+
+    // ============================================================================
+    // 12. STRATEGY MATRIX - binary search vs direct index (BSBuffer) vs LinearBuffer
+    // ============================================================================
+
+    @State(Scope.Thread)
+    public static class StrategyState {
+        @Param({"search", "direct", "linear"})
+        String strategy;
+
+        @Param({"64", "1024", "16384"})
+        int maxBuckets;
+
+        Consumer<TestValue> writer;
+        LongUnaryOperator windowSum; // sum of the buckets from a start timestamp on
+        long timestamp;
+        long readFrom;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            if (strategy.equals("linear")) {
+                var buffer = new LinearBuffer<SumBucket, TestValue>(maxBuckets, maxBuckets, 1000, SumBucket::new);
+                writer = buffer::update;
+                windowSum = from -> {
+                    long sum = 0;
+                    for (var it = buffer.iterator(from); it.hasNext(); )
+                        sum += it.next().sum;
+                    return sum;
+                };
+            } else {
+                var buffer = new BSBuffer<SumBucket, TestValue>(maxBuckets, maxBuckets, 1000, SumBucket::new,
+                        BufferOptions.DEFAULT.withDirectIndex(strategy.equals("direct")));
+                writer = buffer::update;
+                windowSum = from -> {
+                    long sum = 0;
+                    for (var it = buffer.iterator(from); it.hasNext(); )
+                        sum += it.next().sum;
+                    return sum;
+                };
+            }
+            // four values per period, the ring wrapped twice
+            timestamp = 1_000_000L;
+            for (int i = 0; i < maxBuckets * 8; i++)
+                writer.accept(new TestValue(i, timestamp += 250));
+            readFrom = timestamp - 16_000; // the last 16 buckets
+        }
+    }
+
+    @Benchmark
+    public void strategyWrite(StrategyState state) {
+        long ts = state.timestamp += 250;
+        state.writer.accept(new TestValue((int) ts, ts));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public long strategyRead(StrategyState state) {
+        return state.windowSum.applyAsLong(state.readFrom);
+    }
+
+    // ============================================================================
+    // 13. INGEST PIPELINE - producers publishing into MPSC rings drained by consumer threads
+    // ============================================================================
+
+    @State(Scope.Benchmark)
+    public static class IngestState {
+        @Param({"BUSY_SPIN", "YIELDING", "PARKING"})
+        IngestPipeline.WaitStrategy waitStrategy;
+
+        @Param({"1", "2"})
+        int consumers;
+
+        AggregableRollingBuffer<String, SumBucket, TestValue> buffer;
+        IngestPipeline<String, SumBucket, TestValue> pipeline;
+        AtomicLong timestamp;
+        String[] keys = new String[64];
+
+        @Setup(Level.Trial)
+        public void setup() {
+            buffer = new AggregableRollingBuffer<>(SumBucket::new, 1024, 1024, 1000,
+                    BufferOptions.DEFAULT.withAllowedLateness(10_000));
+            pipeline = new IngestPipeline<>(buffer, consumers, 4096, waitStrategy);
+            timestamp = new AtomicLong(System.currentTimeMillis());
+            for (int i = 0; i < keys.length; i++)
+                keys[i] = "key" + i;
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            pipeline.close();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void ingest1Producer(IngestState state) {
+        ingest(state);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void ingest4Producers(IngestState state) {
+        ingest(state);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void ingest8Producers(IngestState state) {
+        ingest(state);
+    }
+
+    private static void ingest(IngestState state) {
+        long ts = state.timestamp.getAndIncrement();
+        state.pipeline.put(state.keys[(int) ts & 63], new TestValue((int) ts, ts));
+    }
+
+    // ============================================================================
+    // 14. COLD TIER - a day of minute buckets out of 30 days, compressed blocks vs a preallocated buffer
+    // ============================================================================
+
+    @State(Scope.Benchmark)
+    public static class ColdTierState {
+        static final int DAYS = 30 * 24 * 60;
+
+        ColdTierRollingBuffer<String, LongSumBucket, LongValue> cold;
+        AggregableRollingBuffer<String, LongSumBucket, LongValue> hot;
+        long dayStart;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            cold = new ColdTierRollingBuffer<>(LongSumBucket::new, 60, 60_000, DAYS, LongSumBucket.CODEC);
+            hot = new AggregableRollingBuffer<>(LongSumBucket::new, DAYS + 60, DAYS + 60, 60_000);
+            Random random = new Random(1);
+            for (int minute = 0; minute < DAYS + 60; minute++) {
+                var value = new LongValue(minute * 60_000L, random.nextInt(1000));
+                cold.put("key", value);
+                hot.put("key", value);
+            }
+            dayStart = (DAYS - 24 * 60) * 60_000L;
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long coldTierDaySum(ColdTierState state) {
+        long[] sum = {0};
+        state.cold.forEach("key", state.dayStart, state.dayStart + 24 * 3_600_000L, b -> sum[0] += b.sum());
+        return sum[0];
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long hotDaySum(ColdTierState state) {
+        return state.hot.reduceToLong("key", state.dayStart, state.dayStart + 24 * 3_600_000L, 0, (acc, b) -> acc + b.sum());
+    }
+
     // ============================================================================
     // Test Data Classes
     // ============================================================================
@@ -260,4 +894,53 @@ public class AggregableRollingBufferBenchmark {
             return count;
         }
     }
-}
\ No newline at end of file
+
+    public static class SumBucket implements MergeableBucket<SumBucket, TestValue> {
+        private long timestamp = 0;
+        private long sum = 0;
+
+        @Override
+        public long timestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public void reset(TestValue value) {
+            this.timestamp = value.timestamp();
+            this.sum = value.id;
+        }
+
+        @Override
+        public void aggregate(TestValue value) {
+            this.sum += value.id;
+        }
+
+        @Override
+        public void clear(long timestamp) {
+            this.timestamp = timestamp;
+            this.sum = 0;
+        }
+
+        @Override
+        public void merge(SumBucket other) {
+            this.sum += other.sum;
+        }
+    }
+
+    // timestamp relative to a shared base, so a batch can be replayed with fresh timestamps without reallocation
+    public static class BatchValue extends TestValue {
+        private final long offset;
+        private final long[] base;
+
+        public BatchValue(int id, long offset, long[] base) {
+            super(id, 0);
+            this.offset = offset;
+            this.base = base;
+        }
+
+        @Override
+        public long timestamp() {
+            return base[0] + offset;
+        }
+    }
+}
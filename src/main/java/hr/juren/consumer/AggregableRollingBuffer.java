@@ -2,41 +2,122 @@ package hr.juren.consumer;
 
 import hr.juren.consumer.BSRollingBuffer.BSBuffer;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.*;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongBinaryOperator;
+import java.util.function.Predicate;
 import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
 
-public final class AggregableRollingBuffer<K, B extends Bucket<V>, V extends TimeStamped> {
+public final class AggregableRollingBuffer<K, B extends Bucket<V>, V extends TimeStamped> implements AutoCloseable {
 
-    private final Lock lock = new ReentrantLock();
-    private final Map<K, BSBuffer<B, V>> buffers = new HashMap<>();
+    private static final int MAX_POOLED = 1024;
+
+    private final ConcurrentKeyTable<K, BSBuffer<B, V>> buffers = new ConcurrentKeyTable<>();
     private final Supplier<B> bucketSupplier;
     private final int maxBuckets;
     private final int exposedBuckets;
     private final int periodMillis;
+    private final BufferOptions options;
+    private final ToLongFunction<? super B> indexedMetric;
+
+    // idle key eviction, only used when options.evictsKeys()
+    private final boolean evicting;
+    private final ConcurrentLinkedQueue<BSBuffer<B, V>> pool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+    private final List<BSBuffer<B, V>> limbo = new ArrayList<>(); // sweeping thread only, sweeps never overlap
+    private final ScheduledExecutorService sweeper;
+
+    // copy on write, read by writers whenever a bucket closes
+    @SuppressWarnings("unchecked")
+    private volatile BucketSubscription<K, B, ?>[] subscriptions = (BucketSubscription<K, B, ?>[]) new BucketSubscription<?, ?, ?>[0];
 
     public AggregableRollingBuffer(Supplier<B> bucketSupplier,
                                    int maxBuckets,
                                    int exposedBuckets,
                                    int periodMillis) {
+        this(bucketSupplier, maxBuckets, exposedBuckets, periodMillis, BufferOptions.DEFAULT);
+    }
+
+    public AggregableRollingBuffer(Supplier<B> bucketSupplier,
+                                   int maxBuckets,
+                                   int exposedBuckets,
+                                   int periodMillis,
+                                   BufferOptions options) {
+        this(bucketSupplier, maxBuckets, exposedBuckets, periodMillis, options, null);
+    }
+
+    /**
+     * @param indexedMetric metric kept in a per-key window index, enabling {@link #windowSum}, {@link #windowMin}
+     *                      and {@link #windowMax}; may be null
+     */
+    public AggregableRollingBuffer(Supplier<B> bucketSupplier,
+                                   int maxBuckets,
+                                   int exposedBuckets,
+                                   int periodMillis,
+                                   BufferOptions options,
+                                   ToLongFunction<? super B> indexedMetric) {
+        this(bucketSupplier, maxBuckets, exposedBuckets, periodMillis, options, indexedMetric,
+                options.evictsKeys() ? newSweeper() : null);
+    }
+
+    /**
+     * @param sweeper runs the idle key sweeps, null to leave them to the caller of {@link #sweep} (tests)
+     */
+    AggregableRollingBuffer(Supplier<B> bucketSupplier,
+                            int maxBuckets,
+                            int exposedBuckets,
+                            int periodMillis,
+                            BufferOptions options,
+                            ToLongFunction<? super B> indexedMetric,
+                            ScheduledExecutorService sweeper) {
         this.bucketSupplier = Objects.requireNonNull(bucketSupplier);
         this.maxBuckets = maxBuckets;
         this.exposedBuckets = exposedBuckets;
         this.periodMillis = periodMillis;
+        this.options = Objects.requireNonNull(options);
+        this.indexedMetric = indexedMetric;
+        this.evicting = options.evictsKeys();
+        this.sweeper = sweeper;
+        if (evicting && sweeper != null) {
+            long interval = sweepIntervalMillis(options);
+            sweeper.scheduleWithFixedDelay(() -> sweep(System.nanoTime()), interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static ScheduledExecutorService newSweeper() {
+        return Executors.newSingleThreadScheduledExecutor(r -> {
+            var thread = new Thread(r, "rolling-buffer-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     public void put(K key, V value) {
-        var buffer = buffers.get(key);
-        if (buffer == null) {
-            lock.lock();
-            try {
-                buffer = buffers.computeIfAbsent(key, k -> new BSBuffer<>(maxBuckets, exposedBuckets, periodMillis, bucketSupplier));
-            } finally {
-                lock.unlock();
-            }
-        }
-        buffer.update(value);
+        bufferFor(key).update(value);
+    }
+
+    /**
+     * Puts a batch of values for one key, sorted by timestamp. The key is resolved once for the whole batch.
+     */
+    public void putAll(K key, V[] values) {
+        putAll(key, values, 0, values.length);
+    }
+
+    public void putAll(K key, V[] values, int from, int to) {
+        bufferFor(key).updateAll(values, from, to);
     }
 
     public Iterator<B> iterator(K key, long startTimestamp) {
@@ -44,4 +125,333 @@ public final class AggregableRollingBuffer<K, B extends Bucket<V>, V extends Tim
         if (buffer == null) return Collections.emptyIterator();
         return buffer.iterator(startTimestamp);
     }
+
+    /**
+     * Calls {@code action} for every exposed bucket of {@code key} with a timestamp in {@code [from, to)},
+     * oldest first, walking the backing array without allocating an iterator.
+     */
+    public void forEach(K key, long from, long to, Consumer<? super B> action) {
+        var buffer = buffers.get(key);
+        if (buffer != null) buffer.forEach(from, to, action);
+    }
+
+    public <R> R reduce(K key, long from, long to, R identity, BiFunction<R, ? super B, R> reducer) {
+        var buffer = buffers.get(key);
+        return buffer == null ? identity : buffer.reduce(from, to, identity, reducer);
+    }
+
+    public long reduceToLong(K key, long from, long to, long identity, LongBucketReducer<? super B> reducer) {
+        var buffer = buffers.get(key);
+        return buffer == null ? identity : buffer.reduceToLong(from, to, identity, reducer);
+    }
+
+    /**
+     * See {@link BSBuffer#snapshotReduceToLong}; needs {@link BufferOptions#snapshotReads()}.
+     */
+    public long snapshotReduceToLong(K key, long from, long to, long identity, LongBucketReducer<? super B> reducer) {
+        var buffer = buffers.get(key);
+        return buffer == null ? identity : buffer.snapshotReduceToLong(from, to, identity, reducer);
+    }
+
+    /**
+     * See {@link BSBuffer#snapshot}; needs {@link BufferOptions#snapshotReads()}.
+     */
+    public <R> List<R> snapshot(K key, long from, long to, Function<? super B, ? extends R> copy) {
+        var buffer = buffers.get(key);
+        return buffer == null ? List.of() : buffer.snapshot(from, to, copy);
+    }
+
+    /**
+     * Clears {@code target} to {@code from} and merges every exposed bucket of {@code key} in {@code [from, to)} into
+     * it, e.g. one {@link QuantileBucket} for percentiles over the whole window. Needs {@link MergeableBucket}s.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public B merge(K key, long from, long to, B target) {
+        if (!(target instanceof MergeableBucket mergeable))
+            throw new IllegalArgumentException("Window merge needs MergeableBucket buckets");
+        mergeable.clear(from);
+        forEach(key, from, to, b -> mergeable.merge((MergeableBucket) b));
+        return target;
+    }
+
+    public long windowSum(K key, long from, long to) {
+        var buffer = buffers.get(key);
+        return buffer == null ? 0 : buffer.windowSum(from, to);
+    }
+
+    public long windowMin(K key, long from, long to) {
+        var buffer = buffers.get(key);
+        return buffer == null ? Long.MAX_VALUE : buffer.windowMin(from, to);
+    }
+
+    public long windowMax(K key, long from, long to) {
+        var buffer = buffers.get(key);
+        return buffer == null ? Long.MIN_VALUE : buffer.windowMax(from, to);
+    }
+
+    /**
+     * Values of {@code key} dropped for arriving later than {@link BufferOptions#allowedLatenessMillis()}.
+     */
+    public long dropped(K key) {
+        var buffer = buffers.get(key);
+        return buffer == null ? 0 : buffer.dropped();
+    }
+
+    /**
+     * Reduces the buckets in {@code [from, to)} of every key accepted by {@code keys}. Each key is folded from
+     * {@code identity} with {@code reducer} (the allocation-free walk of {@link #reduceToLong}), the per-key results
+     * are combined with {@code combiner}, also starting from {@code identity}. Keys are scanned in parallel on the
+     * common fork-join pool.
+     */
+    public long reduceAll(Predicate<? super K> keys, long from, long to, long identity,
+                          LongBucketReducer<? super B> reducer, LongBinaryOperator combiner) {
+        long[] result = buffers.parallelFold(() -> new long[]{identity}, (acc, key, buffer) -> {
+            if (keys.test(key))
+                acc[0] = combiner.applyAsLong(acc[0], buffer.reduceToLong(from, to, identity, reducer));
+        }, (a, b) -> {
+            a[0] = combiner.applyAsLong(a[0], b[0]);
+            return a;
+        });
+        return result[0];
+    }
+
+    /**
+     * As {@link #reduceAll}, but the per-key results are combined per group, e.g. with a key prefix as
+     * {@code classifier}.
+     */
+    public <G> Map<G, Long> groupBy(Predicate<? super K> keys, Function<? super K, ? extends G> classifier, long from,
+                                    long to, long identity, LongBucketReducer<? super B> reducer,
+                                    LongBinaryOperator combiner) {
+        Map<G, long[]> groups = buffers.parallelFold(HashMap::new, (acc, key, buffer) -> {
+            if (keys.test(key)) {
+                long value = buffer.reduceToLong(from, to, identity, reducer);
+                long[] group = acc.computeIfAbsent(classifier.apply(key), g -> new long[]{identity});
+                group[0] = combiner.applyAsLong(group[0], value);
+            }
+        }, (a, b) -> {
+            b.forEach((group, value) -> a.merge(group, value, (x, y) -> {
+                x[0] = combiner.applyAsLong(x[0], y[0]);
+                return x;
+            }));
+            return a;
+        });
+        Map<G, Long> result = new HashMap<>();
+        groups.forEach((group, value) -> result.put(group, value[0]));
+        return result;
+    }
+
+    /**
+     * The {@code k} keys accepted by {@code keys} with the largest reduction over {@code [from, to)}, largest first.
+     * Every fork-join task keeps a min-heap of at most {@code k} entries, a key only allocates its entry when it
+     * beats the smallest one kept.
+     */
+    public List<KeyTotal<K>> topK(int k, Predicate<? super K> keys, long from, long to, long identity,
+                                  LongBucketReducer<? super B> reducer) {
+        if (k < 1)
+            throw new IllegalArgumentException("k >= 1 required");
+        Comparator<KeyTotal<K>> byTotal = Comparator.comparingLong(KeyTotal::total);
+        PriorityQueue<KeyTotal<K>> top = buffers.parallelFold(() -> new PriorityQueue<>(k + 1, byTotal), (acc, key, buffer) -> {
+            if (keys.test(key))
+                offer(acc, k, key, buffer.reduceToLong(from, to, identity, reducer));
+        }, (a, b) -> {
+            for (var e : b)
+                offer(a, k, e.key(), e.total());
+            return a;
+        });
+        List<KeyTotal<K>> result = new ArrayList<>(top);
+        result.sort(byTotal.reversed());
+        return result;
+    }
+
+    private static <K> void offer(PriorityQueue<KeyTotal<K>> top, int k, K key, long total) {
+        if (top.size() < k) {
+            top.add(new KeyTotal<>(key, total));
+        } else if (total > top.peek().total()) {
+            top.poll();
+            top.add(new KeyTotal<>(key, total));
+        }
+    }
+
+    /**
+     * Pushes every bucket of the keys accepted by {@code keys} to {@code subscriber} once it is closed, i.e. when the
+     * key's first value of a newer period arrives or the rotation timer moves on. The writer takes a copy with
+     * {@code copy} and queues it, delivery runs on the common fork-join pool in batches bounded by the subscriber's
+     * requests. A subscriber that falls more than {@code bufferSize} buckets behind loses new buckets (see
+     * {@link BucketSubscription#dropped()}) instead of slowing the writers down.
+     */
+    public <R> BucketSubscription<K, B, R> subscribe(Predicate<? super K> keys, Function<? super B, ? extends R> copy,
+                                                     int bufferSize, Flow.Subscriber<? super ClosedBucket<K, R>> subscriber) {
+        var subscription = new BucketSubscription<K, B, R>(keys, copy, bufferSize, subscriber, this::unsubscribe);
+        synchronized (this) {
+            var current = subscriptions;
+            var next = Arrays.copyOf(current, current.length + 1);
+            next[current.length] = subscription;
+            subscriptions = next;
+        }
+        return subscription;
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized void unsubscribe(BucketSubscription<K, B, ?> subscription) {
+        subscriptions = Arrays.stream(subscriptions).filter(s -> s != subscription)
+                .toArray(n -> (BucketSubscription<K, B, ?>[]) new BucketSubscription<?, ?, ?>[n]);
+    }
+
+    /**
+     * Writes the exposed buckets of every key to {@code out} in the compact format of {@link SnapshotFormat}, with
+     * {@code codec} encoding the buckets and {@code keyName} the keys, and returns the bytes written. Buckets are read
+     * like {@link #forEach} while writers go on, a bucket written meanwhile may be captured half updated. Also
+     * checkpoints every key for {@link #exportClosed}.
+     */
+    public synchronized long writeSnapshot(WritableByteChannel out, BucketCodec<? super B> codec,
+                                           Function<? super K, String> keyName) throws IOException {
+        return export(out, codec, keyName, false);
+    }
+
+    /**
+     * Incremental {@link #writeSnapshot}: writes only the buckets closed since the key's last checkpoint, i.e. every
+     * bucket older than the open one not written by a previous export. Reading a full snapshot followed by its
+     * exports in order restores the buffer; a late value aggregated into an already exported bucket is not exported
+     * again.
+     */
+    public synchronized long exportClosed(WritableByteChannel out, BucketCodec<? super B> codec,
+                                          Function<? super K, String> keyName) throws IOException {
+        return export(out, codec, keyName, true);
+    }
+
+    private long export(WritableByteChannel out, BucketCodec<? super B> codec, Function<? super K, String> keyName,
+                        boolean closedOnly) throws IOException {
+        var writer = new SnapshotFormat.Writer<K, B, V>(out, codec, keyName, periodMillis);
+        try {
+            buffers.forEach((key, buffer) -> {
+                long open = buffer.openTimestamp();
+                if (closedOnly)
+                    writer.write(key, buffer, buffer.exportedUpTo, open);
+                else
+                    writer.write(key, buffer, Long.MIN_VALUE, Long.MAX_VALUE);
+                buffer.exportedUpTo = open;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return writer.finish();
+    }
+
+    /**
+     * Restores a snapshot or export written by a buffer with the same period. A key's buckets newer than its open
+     * bucket are appended, one of the open bucket's period replaces it and older ones are skipped, so snapshots are
+     * read oldest first. Meant for a buffer that writers do not use yet.
+     */
+    public void readSnapshot(ReadableByteChannel in, BucketCodec<? super B> codec,
+                             Function<String, ? extends K> keyOf) throws IOException {
+        SnapshotFormat.read(in, periodMillis, codec, keyOf, this::bufferFor, bucketSupplier.get());
+    }
+
+    /**
+     * Stops the background sweeper, if idle key eviction is enabled.
+     */
+    @Override
+    public void close() {
+        if (sweeper != null)
+            sweeper.shutdownNow();
+    }
+
+    private BSBuffer<B, V> bufferFor(K key) {
+        for (; ; ) {
+            var buffer = buffers.get(key);
+            if (buffer == null)
+                buffer = buffers.computeIfAbsent(key, this::newBuffer, this::recycle);
+            if (!evicting)
+                return buffer;
+            // pairs with evict(): a writer either sees retired or the sweeper sees referenced and keeps the buffer
+            if (!buffer.referenced)
+                buffer.referenced = true;
+            if (!buffer.retired)
+                return buffer;
+            Thread.onSpinWait();
+        }
+    }
+
+    private BSBuffer<B, V> newBuffer(K key) {
+        var buffer = pool.poll();
+        if (buffer == null)
+            buffer = new BSBuffer<>(maxBuckets, exposedBuckets, periodMillis, bucketSupplier, options, indexedMetric);
+        else
+            pooled.decrementAndGet();
+        // bound to the key, a pooled buffer is rebound before the table publishes it
+        buffer.listener(new BucketListener<B>() {
+            @Override
+            public void onClose(B bucket) {
+                for (var subscription : subscriptions)
+                    subscription.offer(key, bucket);
+            }
+        });
+        return buffer;
+    }
+
+    // a buffer that lost the race to be published was never written, it can go to the pool as it is
+    private void recycle(BSBuffer<B, V> buffer) {
+        if (pooled.get() >= MAX_POOLED)
+            return;
+        pool.offer(buffer);
+        pooled.incrementAndGet();
+    }
+
+    /*
+     * One CLOCK pass over the keys: a set reference bit is cleared and starts a new idle period, an unset one means
+     * the key was not written since the last sweep. With pooling, evicted buffers stay in limbo for one sweep interval,
+     * so a writer that fetched the buffer just before its eviction usually finishes before the buffer is cleared and
+     * pooled; nothing guarantees it, see {@link BufferOptions}.
+     */
+    void sweep(long nowNanos) {
+        for (var buffer : limbo) {
+            if (pooled.get() >= MAX_POOLED)
+                break;
+            buffer.clear();
+            buffer.retired = false;
+            buffer.referenced = false;
+            pool.offer(buffer);
+            pooled.incrementAndGet();
+        }
+        limbo.clear();
+
+        long ttlNanos = TimeUnit.MILLISECONDS.toNanos(options.idleTtlMillis());
+        List<Map.Entry<K, BSBuffer<B, V>>> idle = new ArrayList<>();
+        buffers.forEach((key, buffer) -> {
+            if (buffer.referenced) {
+                buffer.referenced = false;
+                buffer.idleSince = nowNanos;
+            } else if (ttlNanos > 0 && nowNanos - buffer.idleSince >= ttlNanos) {
+                evict(key, buffer);
+            } else if (options.maxKeys() > 0) {
+                idle.add(Map.entry(key, buffer));
+            }
+        });
+
+        int excess = buffers.size() - options.maxKeys();
+        if (options.maxKeys() > 0 && excess > 0) {
+            idle.sort(Comparator.comparingLong(e -> e.getValue().idleSince));
+            for (int i = 0; i < idle.size() && excess > 0; i++)
+                if (evict(idle.get(i).getKey(), idle.get(i).getValue()))
+                    excess--;
+        }
+    }
+
+    private boolean evict(K key, BSBuffer<B, V> buffer) {
+        buffer.retired = true;
+        if (buffer.referenced) {
+            buffer.retired = false;
+            return false;
+        }
+        buffers.remove(key, buffer);
+        if (options.poolBuffers())
+            limbo.add(buffer);
+        return true;
+    }
+
+    private static long sweepIntervalMillis(BufferOptions options) {
+        if (options.idleTtlMillis() == 0)
+            return 100;
+        return Math.max(1, Math.min(1000, options.idleTtlMillis() / 4));
+    }
 }
@@ -1,39 +1,48 @@
 package hr.juren.consumer;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.ref.WeakReference;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
 import java.util.*;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
 
 public final class BSRollingBuffer<K, B extends Bucket<V>, V extends TimeStamped> {
 
-    private final Lock lock = new ReentrantLock();
-    private final Map<K, BSBuffer<B, V>> buffers = new HashMap<>();
+    private final ConcurrentKeyTable<K, BSBuffer<B, V>> buffers = new ConcurrentKeyTable<>();
     private final Supplier<B> bucketSupplier;
     private final int maxBuckets;
     private final int exposedBuckets;
     private final int periodMillis;
+    private final BufferOptions options;
 
     public BSRollingBuffer(Supplier<B> bucketSupplier,
                            int maxBuckets,
                            int exposedBuckets,
                            int periodMillis) {
+        this(bucketSupplier, maxBuckets, exposedBuckets, periodMillis, BufferOptions.DEFAULT);
+    }
+
+    public BSRollingBuffer(Supplier<B> bucketSupplier,
+                           int maxBuckets,
+                           int exposedBuckets,
+                           int periodMillis,
+                           BufferOptions options) {
         this.bucketSupplier = Objects.requireNonNull(bucketSupplier);
         this.maxBuckets = maxBuckets;
         this.exposedBuckets = exposedBuckets;
         this.periodMillis = periodMillis;
+        this.options = Objects.requireNonNull(options);
     }
 
     public void put(K key, V value) {
         var buffer = buffers.get(key);
-        if (buffer == null) {
-            lock.lock();
-            try {
-                buffer = buffers.computeIfAbsent(key, k -> new BSBuffer<>(maxBuckets, exposedBuckets, periodMillis, bucketSupplier));
-            } finally {
-                lock.unlock();
-            }
-        }
+        if (buffer == null)
+            buffer = buffers.computeIfAbsent(key, k -> new BSBuffer<>(maxBuckets, exposedBuckets, periodMillis, bucketSupplier, options));
         buffer.update(value);
     }
 
@@ -43,93 +52,847 @@ public final class BSRollingBuffer<K, B extends Bucket<V>, V extends TimeStamped
         return buffer.iterator(startTimestamp);
     }
 
-    public static final class BSBuffer<B extends Bucket<V>, V extends TimeStamped> {
+    public void forEach(K key, long from, long to, Consumer<? super B> action) {
+        var buffer = buffers.get(key);
+        if (buffer != null) buffer.forEach(from, to, action);
+    }
+
+    public <R> R reduce(K key, long from, long to, R identity, BiFunction<R, ? super B, R> reducer) {
+        var buffer = buffers.get(key);
+        return buffer == null ? identity : buffer.reduce(from, to, identity, reducer);
+    }
+
+    public long reduceToLong(K key, long from, long to, long identity, LongBucketReducer<? super B> reducer) {
+        var buffer = buffers.get(key);
+        return buffer == null ? identity : buffer.reduceToLong(from, to, identity, reducer);
+    }
+
+    /*
+     * Field layout of BSBuffer. The JVM lays out superclass fields first, so the fields written by the writer sit
+     * between two padding blocks and share no cache line with the final fields every reader loads, nor with a
+     * neighbouring buffer. 128 bytes per side covers the adjacent-line prefetcher.
+     */
+    abstract static class BSBufferLhsPadding {
+        long p00, p01, p02, p03, p04, p05, p06, p07, p08, p09, p10, p11, p12, p13, p14, p15;
+    }
+
+    abstract static class BSBufferHotFields extends BSBufferLhsPadding {
+        volatile int writeIndex = 0; // points to the most recent bucket
+        volatile int filled = 0; // buckets written since creation or clear(), at most maxBuckets
+        volatile long sequence = 0; // odd while a concurrent writer is inside update
+        // timestamps the open bucket accepts without any period arithmetic, [acceptFrom, acceptTo); writer only
+        long acceptFrom = Long.MAX_VALUE;
+        long acceptTo = Long.MIN_VALUE;
+        long maxSeenTs = Long.MIN_VALUE; // newest value accepted, tracked only with allowed lateness; writer only
+    }
+
+    abstract static class BSBufferRhsPadding extends BSBufferHotFields {
+        long p16, p17, p18, p19, p20, p21, p22, p23, p24, p25, p26, p27, p28, p29, p30, p31;
+    }
+
+    public static final class BSBuffer<B extends Bucket<V>, V extends TimeStamped> extends BSBufferRhsPadding {
+
+        private static final VarHandle SEQUENCE;
+        private static final VarHandle STAMP = MethodHandles.arrayElementVarHandle(long[].class);
+
+        static {
+            try {
+                SEQUENCE = MethodHandles.lookup().findVarHandle(BSBufferHotFields.class, "sequence", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
 
         private final int maxBuckets;
         private final int exposedBuckets;
         private final long periodMillis;
+        private final int periodShift; // log2(periodMillis) when it is a power of two, else -1
+        private final boolean concurrentWriters;
+        private final boolean dense; // one bucket per period (direct index or clock-driven), slot offsets are period offsets
+        private final long allowedLatenessMillis; // 0 = timestamps must strictly increase
         private final B[] buckets;
+        private final WindowIndex<B> windowIndex; // null unless an indexed metric was configured
+        private BucketListener<? super B> listener; // replaced only before the buffer is published to writers
+        private final long[] stamps; // per-slot seqlock, odd while the bucket in the slot is written; null unless snapshotReads
 
-        private volatile int writeIndex = 0; // points to the most recent bucket
+        private volatile long dropped = 0; // values too late for allowedLatenessMillis, only written by the writer
+
+        // maintained by AggregableRollingBuffer when it evicts idle keys
+        volatile boolean referenced; // set by writers, cleared by the sweeper
+        volatile boolean retired; // set by the sweeper while it decides to evict
+        long idleSince; // sweeper thread only
+        // open bucket's timestamp at the last export, the buckets before it were exported; exporter thread only
+        long exportedUpTo = Long.MIN_VALUE;
 
-        @SuppressWarnings("unchecked")
         public BSBuffer(int maxBuckets, int exposedBuckets, long periodMillis, Supplier<B> bucketSupplier) {
+            this(maxBuckets, exposedBuckets, periodMillis, bucketSupplier, BufferOptions.DEFAULT);
+        }
+
+        public BSBuffer(int maxBuckets, int exposedBuckets, long periodMillis, Supplier<B> bucketSupplier, BufferOptions options) {
+            this(maxBuckets, exposedBuckets, periodMillis, bucketSupplier, options, null);
+        }
+
+        /**
+         * @param indexedMetric when not null, sum/min/max of this metric over closed buckets are indexed on every
+         *                      rollover, so {@link #windowSum}, {@link #windowMin} and {@link #windowMax} answer in
+         *                      O(log n) instead of walking the window
+         */
+        public BSBuffer(int maxBuckets, int exposedBuckets, long periodMillis, Supplier<B> bucketSupplier,
+                        BufferOptions options, ToLongFunction<? super B> indexedMetric) {
+            this(maxBuckets, exposedBuckets, periodMillis, bucketSupplier, options, indexedMetric, null);
+        }
+
+        @SuppressWarnings("unchecked")
+        public BSBuffer(int maxBuckets, int exposedBuckets, long periodMillis, Supplier<B> bucketSupplier,
+                        BufferOptions options, ToLongFunction<? super B> indexedMetric, BucketListener<? super B> listener) {
             if (exposedBuckets > maxBuckets)
                 throw new IllegalArgumentException("exposedBuckets <= maxBuckets required");
             this.maxBuckets = maxBuckets;
             this.exposedBuckets = exposedBuckets;
             this.periodMillis = periodMillis;
+            this.periodShift = Long.bitCount(periodMillis) == 1 ? Long.numberOfTrailingZeros(periodMillis) : -1;
+            this.dense = options.rotationTimer() != null || options.directIndex();
+            this.concurrentWriters = options.concurrentWriters() || options.rotationTimer() != null; // the wheel thread writes too
+            this.allowedLatenessMillis = options.allowedLatenessMillis();
             this.buckets = (B[]) new Bucket[maxBuckets];
             Arrays.setAll(this.buckets, i -> bucketSupplier.get());
+            this.windowIndex = indexedMetric == null ? null : new WindowIndex<>(maxBuckets, indexedMetric);
+            this.listener = listener;
+            this.stamps = options.snapshotReads() ? new long[maxBuckets] : null;
+            if (dense && !(buckets[0] instanceof MergeableBucket))
+                throw new IllegalArgumentException("One bucket per period needs MergeableBucket buckets");
+            if (options.rotationTimer() != null) {
+                long now = options.rotationTimer().millis();
+                options.rotationTimer().schedule(new Rotation(this, options.rotationTimer()), boundaryAfter(now));
+            }
         }
 
         public void update(V value) {
+            if (!concurrentWriters) {
+                apply(value);
+                return;
+            }
+            long seq = acquireWrite();
+            try {
+                apply(value);
+            } finally {
+                sequence = seq + 2;
+            }
+        }
+
+        /**
+         * Applies {@code values[from, to)} in order, with the same semantics as calling {@link #update} for each.
+         * Runs of values in the current period are aggregated without re-deriving the period, and the write index
+         * is published once per period crossed. Values before a rejected one stay applied.
+         */
+        public void updateAll(V[] values, int from, int to) {
+            Objects.checkFromToIndex(from, to, values.length);
+            if (!concurrentWriters) {
+                applyAll(values, from, to);
+                return;
+            }
+            long seq = acquireWrite();
+            try {
+                applyAll(values, from, to);
+            } finally {
+                sequence = seq + 2;
+            }
+        }
+
+        private long acquireWrite() {
+            for (; ; ) {
+                long seq = sequence;
+                if ((seq & 1) == 0 && SEQUENCE.compareAndSet(this, seq, seq + 1))
+                    return seq;
+                Thread.onSpinWait();
+            }
+        }
+
+        private void apply(V value) {
             long valueTs = value.timestamp();
+            if (valueTs >= acceptFrom && valueTs < acceptTo) {
+                // same period as the open bucket
+                int index = writeIndex;
+                beginWrite(index);
+                buckets[index].aggregate(value);
+                endWrite(index);
+                if (allowedLatenessMillis > 0 && valueTs > maxSeenTs)
+                    maxSeenTs = valueTs;
+                return;
+            }
 
-            long lastTs = buckets[writeIndex].timestamp();
-            if (valueTs <= lastTs)
+            int index = writeIndex;
+            long lastTs = filled == 0 ? Long.MIN_VALUE : buckets[index].timestamp();
+            if (valueTs <= lastTs && !concurrentWriters && allowedLatenessMillis == 0)
                 throw new IllegalArgumentException("Timestamps must be strictly increasing");
+            long newest = valueTs;
+            if (allowedLatenessMillis > 0) {
+                newest = Math.max(maxSeenTs, valueTs);
+                maxSeenTs = newest;
+            }
 
             long currentPeriod = periodOf(valueTs);
             long lastPeriod = periodOf(lastTs);
 
-            if (currentPeriod != lastPeriod) {
+            if (currentPeriod > lastPeriod && dense) {
+                index = rotateTo(index, lastPeriod, currentPeriod);
+                beginWrite(index);
+                buckets[index].aggregate(value);
+                endWrite(index);
+            } else if (currentPeriod > lastPeriod) {
                 // advance to next bucket
-                writeIndex = writeIndex + 1 == maxBuckets ? 0 : writeIndex + 1;
-                buckets[writeIndex].reset(value);
-            } else {
+                index = advance(index);
+                beginWrite(index);
+                buckets[index].reset(value);
+                endWrite(index);
+                publish(index);
+            } else if (currentPeriod == lastPeriod) {
                 // same period, aggregate
-                buckets[writeIndex].aggregate(value);
+                beginWrite(index);
+                buckets[index].aggregate(value);
+                endWrite(index);
+            } else if (allowedLatenessMillis > 0) {
+                if (newest - valueTs > allowedLatenessMillis || lastPeriod - currentPeriod >= exposedBuckets)
+                    dropped++;
+                else
+                    applyLate(value, currentPeriod, lastPeriod, index);
+            } else {
+                // concurrent writers only: the value lost the race against a rollover
+                aggregateClosed(value, currentPeriod, index);
             }
         }
 
-        public Iterator<B> iterator(long startTimestamp) {
-            int newestIndex = writeIndex;
-            int visibleCount = Math.min(exposedBuckets, maxBuckets);
-            int oldestIndex = (newestIndex - (visibleCount - 1) + maxBuckets) % maxBuckets;
+        /**
+         * Number of values discarded because they arrived more than {@code allowedLatenessMillis} after the
+         * newest value, or for a period that is no longer exposed (including buckets merged into a clock-driven
+         * buffer too late).
+         */
+        public long dropped() {
+            return dropped;
+        }
 
-            // Logical binary search over circular buffer
-            int low = 0;
-            int high = visibleCount - 1;
+        /**
+         * Folds a whole bucket of a finer buffer into this one, as if its values had been put here.
+         * The buckets of this buffer must implement {@link MergeableBucket}.
+         */
+        public void merge(B source) {
+            if (!concurrentWriters) {
+                applyMerge(source);
+                return;
+            }
+            long seq = acquireWrite();
+            try {
+                applyMerge(source);
+            } finally {
+                sequence = seq + 2;
+            }
+        }
 
-            while (low <= high) {
-                int mid = (low + high) >>> 1;
-                int idx = (oldestIndex + mid) % maxBuckets;
-                long ts = buckets[idx].timestamp();
+        @SuppressWarnings({"rawtypes", "unchecked"})
+        private void applyMerge(B source) {
+            long sourceTs = source.timestamp();
 
-                if (ts == 0 || ts < startTimestamp) {
-                    low = mid + 1;
-                } else {
-                    high = mid - 1;
+            int index = writeIndex;
+            long lastTs = filled == 0 ? Long.MIN_VALUE : buckets[index].timestamp();
+            if (dense) {
+                mergeDense(source, index, periodOf(lastTs), periodOf(sourceTs));
+                return;
+            }
+            if (sourceTs <= lastTs)
+                throw new IllegalArgumentException("Timestamps must be strictly increasing");
+
+            if (periodOf(sourceTs) != periodOf(lastTs)) {
+                index = advance(index);
+                var target = (MergeableBucket) buckets[index];
+                beginWrite(index);
+                target.clear(sourceTs);
+                target.merge((MergeableBucket) source);
+                endWrite(index);
+                publish(index);
+            } else {
+                beginWrite(index);
+                ((MergeableBucket) buckets[index]).merge((MergeableBucket) source);
+                endWrite(index);
+            }
+        }
+
+        // the wheel keeps rotating the open bucket, so a rolled up bucket usually belongs to an older, still exposed one
+        @SuppressWarnings({"rawtypes", "unchecked"})
+        private void mergeDense(B source, int index, long lastPeriod, long period) {
+            long distance = lastPeriod - period;
+            if (distance < 0) {
+                index = rotateTo(index, lastPeriod, period);
+                distance = 0;
+            } else if (distance >= Math.min(exposedBuckets, filled)) {
+                dropped++;
+                return;
+            }
+            int slot = (int) (index - distance < 0 ? index - distance + maxBuckets : index - distance);
+            beginWrite(slot);
+            ((MergeableBucket) buckets[slot]).merge((MergeableBucket) source);
+            endWrite(slot);
+            if (distance > 0 && windowIndex != null)
+                windowIndex.refresh(slot, buckets[slot], index);
+        }
+
+        /*
+         * Dense mode: publishes a cleared bucket for every period after lastPeriod up to period, at most
+         * maxBuckets of them, so consecutive slots always hold consecutive periods. Returns the new open slot.
+         */
+        @SuppressWarnings("rawtypes")
+        private int rotateTo(int index, long lastPeriod, long period) {
+            long first = filled == 0 ? period : Math.max(lastPeriod + 1, period - maxBuckets + 1);
+            for (long p = first; p <= period; p++) {
+                index = advance(index);
+                beginWrite(index);
+                ((MergeableBucket) buckets[index]).clear(p * periodMillis);
+                endWrite(index);
+                publish(index);
+            }
+            return index;
+        }
+
+        // called by the wheel at period boundaries, returns the next boundary
+        private long rotate(long nowMillis) {
+            long period = periodOf(nowMillis);
+            long seq = acquireWrite();
+            try {
+                int index = writeIndex;
+                if (filled > 0) {
+                    long lastPeriod = periodOf(buckets[index].timestamp());
+                    if (period > lastPeriod)
+                        rotateTo(index, lastPeriod, period);
                 }
+            } finally {
+                sequence = seq + 2;
             }
+            return (period + 1) * periodMillis;
+        }
+
+        private long boundaryAfter(long millis) {
+            return (periodOf(millis) + 1) * periodMillis;
+        }
 
-            // After search: low = first element with ts > 0 and ts >= startTimestamp (or == visibleCount if none)
-            int startOffset = Math.min(low, exposedBuckets);
-            final int startIdx = (oldestIndex + startOffset) % maxBuckets;
-            final int endIdx = (newestIndex + 1) % maxBuckets;
+        // holds the buffer weakly, a buffer nobody references any more stops being rotated
+        private static final class Rotation implements TimingWheel.Task {
+            private final WeakReference<BSBuffer<?, ?>> buffer;
+            private final TimingWheel wheel;
 
-            return new Iterator<>() {
-                int i = startIdx;
+            Rotation(BSBuffer<?, ?> buffer, TimingWheel wheel) {
+                this.buffer = new WeakReference<>(buffer);
+                this.wheel = wheel;
+            }
+
+            @Override
+            public long run(long nowMillis) {
+                var b = buffer.get();
+                if (b == null)
+                    return -1;
+                try {
+                    return b.rotate(nowMillis);
+                } catch (RuntimeException e) {
+                    // e.g. from a listener or a bucket's clear; the next boundary rotates through the missed periods
+                    wheel.report(e);
+                    return b.boundaryAfter(nowMillis);
+                }
+            }
+        }
+
+        // closes the bucket at index and returns the slot of the next one, not yet reset or published
+        private int advance(int index) {
+            if (windowIndex != null)
+                windowIndex.close(index, buckets[index]);
+            if (listener != null && filled > 0)
+                listener.onClose(buckets[index]);
+            index = index + 1 == maxBuckets ? 0 : index + 1;
+            if (listener != null && filled == maxBuckets)
+                listener.onEvict(buckets[index]);
+            return index;
+        }
+
+        private void beginWrite(int slot) {
+            if (stamps != null) {
+                STAMP.setOpaque(stamps, slot, stamps[slot] + 1);
+                VarHandle.storeStoreFence();
+            }
+        }
+
+        private void endWrite(int slot) {
+            if (stamps != null)
+                STAMP.setRelease(stamps, slot, stamps[slot] + 1);
+        }
+
+        // readers load filled before writeIndex, so they never see a count that includes an unpublished slot
+        private void publish(int index) {
+            writeIndex = index;
+            int f = filled;
+            if (f < maxBuckets)
+                filled = f + 1;
+
+            accept(buckets[index].timestamp());
+        }
+
+        private void accept(long bucketTs) {
+            long periodStart = periodStart(bucketTs);
+            // strict mode only accepts timestamps after the bucket's, the other modes the whole period (a dense
+            // bucket's timestamp is its period start, not a value's)
+            acceptFrom = concurrentWriters || allowedLatenessMillis > 0 || dense ? periodStart : bucketTs + 1;
+            acceptTo = periodStart + periodMillis;
+        }
+
+        // timestamp of the open bucket, every older exposed bucket is closed; Long.MIN_VALUE while empty
+        long openTimestamp() {
+            int f = filled;
+            return f == 0 ? Long.MIN_VALUE : buckets[writeIndex].timestamp();
+        }
 
+        /**
+         * Decodes a bucket of a snapshot into this buffer: a newer period than the open bucket's is opened, the
+         * open period's bucket is replaced and an older one is decoded into {@code scratch} and skipped.
+         */
+        void restore(long timestamp, BucketCodec<? super B> codec, ByteBuffer in, B scratch) {
+            if (!concurrentWriters) {
+                applyRestore(timestamp, codec, in, scratch);
+                return;
+            }
+            long seq = acquireWrite();
+            try {
+                applyRestore(timestamp, codec, in, scratch);
+            } finally {
+                sequence = seq + 2;
+            }
+        }
+
+        private void applyRestore(long timestamp, BucketCodec<? super B> codec, ByteBuffer in, B scratch) {
+            int index = writeIndex;
+            long lastPeriod = periodOf(filled == 0 ? Long.MIN_VALUE : buckets[index].timestamp());
+            long period = periodOf(timestamp);
+            if (filled > 0 && period < lastPeriod) {
+                codec.decode(in, timestamp, scratch);
+                return;
+            }
+            boolean opens = filled == 0 || period > lastPeriod;
+            if (opens && dense) {
+                index = rotateTo(index, lastPeriod, period);
+                opens = false;
+            } else if (opens) {
+                index = advance(index);
+            }
+            beginWrite(index);
+            codec.decode(in, timestamp, buckets[index]);
+            endWrite(index);
+            if (allowedLatenessMillis > 0 && timestamp > maxSeenTs)
+                maxSeenTs = timestamp;
+            if (opens)
+                publish(index);
+            else
+                accept(buckets[index].timestamp());
+        }
+
+        void listener(BucketListener<? super B> listener) {
+            this.listener = listener;
+        }
+
+        /**
+         * Empties the buffer so it can be reused for another key. The buckets keep their old state, they are
+         * only considered again once rewritten. Must not run concurrently with writers.
+         */
+        void clear() {
+            filled = 0;
+            dropped = 0;
+            exportedUpTo = Long.MIN_VALUE;
+            acceptFrom = Long.MAX_VALUE;
+            acceptTo = Long.MIN_VALUE;
+            maxSeenTs = Long.MIN_VALUE;
+        }
+
+        private void applyAll(V[] values, int from, int to) {
+            int i = from;
+            while (i < to) {
+                apply(values[i++]);
+
+                int index = writeIndex;
+                B bucket = buckets[index];
+                long runStart = acceptFrom;
+                long periodEnd = acceptTo;
+                beginWrite(index);
+                while (i < to) {
+                    V value = values[i];
+                    long ts = value.timestamp();
+                    if (ts < runStart || ts >= periodEnd)
+                        break;
+                    bucket.aggregate(value);
+                    if (allowedLatenessMillis > 0 && ts > maxSeenTs)
+                        maxSeenTs = ts;
+                    i++;
+                }
+                endWrite(index);
+            }
+        }
+
+        // period is within the exposed window and older than the open bucket's
+        private void applyLate(V value, long period, long openPeriod, int openIndex) {
+            int distance = (int) (openPeriod - period);
+            // a dense run of periods puts the bucket exactly distance slots back
+            int index = openIndex - distance < 0 ? openIndex - distance + maxBuckets : openIndex - distance;
+            if (distance < filled && periodOf(buckets[index].timestamp()) == period) {
+                beginWrite(index);
+                buckets[index].aggregate(value);
+                endWrite(index);
+                if (windowIndex != null)
+                    windowIndex.refresh(index, buckets[index], openIndex);
+                return;
+            }
+
+            if (dense) {
+                // older than the first rotated period, inserting it would break the one-bucket-per-period layout
+                dropped++;
+                return;
+            }
+
+            // sparse: periods strictly decrease going back, so the bucket (or its gap) is less than distance back
+            index = openIndex;
+            int limit = Math.min(distance, filled);
+            for (int back = 1; back < limit; back++) {
+                index = index == 0 ? maxBuckets - 1 : index - 1;
+                long bucketPeriod = periodOf(buckets[index].timestamp());
+                if (bucketPeriod < period)
+                    break;
+                if (bucketPeriod == period) {
+                    beginWrite(index);
+                    buckets[index].aggregate(value);
+                    endWrite(index);
+                    if (windowIndex != null)
+                        windowIndex.refresh(index, buckets[index], openIndex);
+                    return;
+                }
+            }
+            insertLate(value, period, openIndex);
+        }
+
+        /*
+         * No bucket for the period yet: the buckets newer than it shift one slot forward, reusing the oldest bucket
+         * for the late value. Costs one reference move per newer bucket, bounded by the allowed lateness.
+         */
+        private void insertLate(V value, long period, int openIndex) {
+            int next = openIndex + 1 == maxBuckets ? 0 : openIndex + 1;
+            B recycled = buckets[next];
+            if (listener != null && filled == maxBuckets)
+                listener.onEvict(recycled);
+
+            int newer = 0;
+            int limit = Math.min(filled, maxBuckets - 1);
+            for (int index = openIndex; newer < limit; newer++, index = index == 0 ? maxBuckets - 1 : index - 1)
+                if (periodOf(buckets[index].timestamp()) < period)
+                    break;
+            int to = next - newer < 0 ? next - newer + maxBuckets : next - newer;
+
+            for (int k = 0, i = to; k <= newer; k++, i = i + 1 == maxBuckets ? 0 : i + 1)
+                beginWrite(i);
+            for (int i = next; i != to; ) {
+                int previous = i == 0 ? maxBuckets - 1 : i - 1;
+                buckets[i] = buckets[previous];
+                i = previous;
+            }
+            recycled.reset(value);
+            buckets[to] = recycled;
+            for (int k = 0, i = to; k <= newer; k++, i = i + 1 == maxBuckets ? 0 : i + 1)
+                endWrite(i);
+            publish(next);
+            // older than the open bucket, so closed from the start
+            if (listener != null)
+                listener.onClose(recycled);
+
+            if (windowIndex != null)
+                for (int i = to; i != next; i = i + 1 == maxBuckets ? 0 : i + 1)
+                    windowIndex.close(i, buckets[i]);
+        }
+
+        private void aggregateClosed(V value, long period, int openIndex) {
+            int index = openIndex;
+            int limit = Math.min(exposedBuckets, filled);
+            for (int i = 1; i < limit; i++) {
+                index = index == 0 ? maxBuckets - 1 : index - 1;
+                long bucketPeriod = periodOf(buckets[index].timestamp());
+                if (bucketPeriod == period) {
+                    beginWrite(index);
+                    buckets[index].aggregate(value);
+                    endWrite(index);
+                    if (windowIndex != null)
+                        windowIndex.refresh(index, buckets[index], openIndex);
+                    return;
+                }
+                if (bucketPeriod < period)
+                    break;
+            }
+            throw new IllegalArgumentException("Value belongs to an already closed period");
+        }
+
+        public Iterator<B> iterator(long startTimestamp) {
+            var cursor = cursor(startTimestamp);
+            return new Iterator<>() {
                 @Override
                 public boolean hasNext() {
-                    return i != endIdx;
+                    return cursor.hasNext();
                 }
 
                 @Override
                 public B next() {
-                    if (i == endIdx)
+                    if (!cursor.hasNext())
                         throw new NoSuchElementException();
-                    B b = buckets[i];
-                    i = (i + 1) >= maxBuckets ? 0 : i + 1;
+                    B b = cursor.bucket();
+                    cursor.advance();
                     return b;
                 }
             };
         }
 
+        /**
+         * Calls {@code action} for every exposed bucket with a timestamp in {@code [from, to)}, oldest first.
+         */
+        public void forEach(long from, long to, Consumer<? super B> action) {
+            for (var c = cursor(from); c.hasNext(); c.advance()) {
+                B b = c.bucket();
+                if (b.timestamp() >= to)
+                    return;
+                action.accept(b);
+            }
+        }
+
+        /**
+         * Folds every exposed bucket with a timestamp in {@code [from, to)} into {@code identity}, oldest first.
+         */
+        public <R> R reduce(long from, long to, R identity, BiFunction<R, ? super B, R> reducer) {
+            R result = identity;
+            for (var c = cursor(from); c.hasNext(); c.advance()) {
+                B b = c.bucket();
+                if (b.timestamp() >= to)
+                    break;
+                result = reducer.apply(result, b);
+            }
+            return result;
+        }
+
+        /**
+         * Primitive variant of {@link #reduce}, without boxing the accumulator.
+         */
+        public long reduceToLong(long from, long to, long identity, LongBucketReducer<? super B> reducer) {
+            long result = identity;
+            for (var c = cursor(from); c.hasNext(); c.advance()) {
+                B b = c.bucket();
+                if (b.timestamp() >= to)
+                    break;
+                result = reducer.apply(result, b);
+            }
+            return result;
+        }
+
+        /**
+         * Consistent variant of {@link #reduceToLong}: a bucket that a writer changes while it is being reduced is
+         * reduced again once the write completes, writers never wait. The reducer may therefore run more than once
+         * per bucket and must not have side effects. Requires {@link BufferOptions#snapshotReads()}.
+         */
+        public long snapshotReduceToLong(long from, long to, long identity, LongBucketReducer<? super B> reducer) {
+            long[] stamps = requireStamps();
+            long result = identity;
+            for (var c = cursor(from); c.hasNext(); c.advance()) {
+                int i = c.slot();
+                long stamp;
+                long reduced;
+                boolean inRange;
+                do {
+                    stamp = stableStamp(stamps, i);
+                    B b = buckets[i];
+                    inRange = b.timestamp() < to;
+                    reduced = inRange ? reducer.apply(result, b) : result;
+                } while (!validate(stamps, i, stamp));
+                if (!inRange)
+                    break;
+                result = reduced;
+            }
+            return result;
+        }
+
+        /**
+         * Copies of the exposed buckets with a timestamp in {@code [from, to)}, oldest first, each taken while no
+         * writer was changing the bucket. Requires {@link BufferOptions#snapshotReads()}.
+         */
+        public <R> List<R> snapshot(long from, long to, Function<? super B, ? extends R> copy) {
+            long[] stamps = requireStamps();
+            List<R> result = new ArrayList<>();
+            for (var c = cursor(from); c.hasNext(); c.advance()) {
+                int i = c.slot();
+                long stamp;
+                R copied;
+                do {
+                    stamp = stableStamp(stamps, i);
+                    B b = buckets[i];
+                    copied = b.timestamp() < to ? copy.apply(b) : null;
+                } while (!validate(stamps, i, stamp));
+                if (copied == null)
+                    break;
+                result.add(copied);
+            }
+            return result;
+        }
+
+        /**
+         * Walks the exposed buckets oldest first, starting at the first one with a timestamp at or after
+         * {@code from}. Every read of the window goes through it; a cursor that does not escape is not allocated.
+         */
+        Cursor cursor(long from) {
+            return new Cursor(from);
+        }
+
+        final class Cursor {
+            private int slot;
+            private int remaining;
+
+            private Cursor(long from) {
+                int visibleCount = Math.min(exposedBuckets, filled);
+                int oldestIndex = (writeIndex - (visibleCount - 1) + maxBuckets) % maxBuckets;
+                int offset = firstOffset(oldestIndex, visibleCount, from);
+                this.slot = (oldestIndex + offset) % maxBuckets;
+                this.remaining = visibleCount - offset;
+            }
+
+            boolean hasNext() {
+                return remaining > 0;
+            }
+
+            int slot() {
+                return slot;
+            }
+
+            B bucket() {
+                return buckets[slot];
+            }
+
+            void advance() {
+                slot = slot + 1 == maxBuckets ? 0 : slot + 1;
+                remaining--;
+            }
+        }
+
+        private long[] requireStamps() {
+            if (stamps == null)
+                throw new IllegalStateException("Buffer was created without snapshot reads");
+            return stamps;
+        }
+
+        private static long stableStamp(long[] stamps, int slot) {
+            long stamp;
+            while (((stamp = (long) STAMP.getAcquire(stamps, slot)) & 1) != 0)
+                Thread.onSpinWait();
+            return stamp;
+        }
+
+        private static boolean validate(long[] stamps, int slot, long stamp) {
+            VarHandle.loadLoadFence();
+            return (long) STAMP.getOpaque(stamps, slot) == stamp;
+        }
+
+        /**
+         * Sum of the indexed metric over exposed buckets with a timestamp in {@code [from, to)}, 0 if there are none.
+         */
+        public long windowSum(long from, long to) {
+            WindowIndex<B> index = requireIndex();
+            int visibleCount = Math.min(exposedBuckets, filled);
+            int newestIndex = writeIndex;
+            int oldestIndex = (newestIndex - (visibleCount - 1) + maxBuckets) % maxBuckets;
+
+            int first = firstOffset(oldestIndex, visibleCount, from);
+            int end = firstOffset(oldestIndex, visibleCount, to);
+            if (first >= end)
+                return 0;
+            long sum = 0;
+            if (end == visibleCount) {
+                // the newest bucket is still open and not indexed yet
+                sum = index.metric(buckets[newestIndex]);
+                end--;
+            }
+            if (first < end)
+                sum += index.sum((oldestIndex + first) % maxBuckets, end - first);
+            return sum;
+        }
+
+        /**
+         * Minimum of the indexed metric over exposed buckets in {@code [from, to)}, {@link Long#MAX_VALUE} if empty.
+         */
+        public long windowMin(long from, long to) {
+            return windowExtreme(from, to, true);
+        }
+
+        /**
+         * Maximum of the indexed metric over exposed buckets in {@code [from, to)}, {@link Long#MIN_VALUE} if empty.
+         */
+        public long windowMax(long from, long to) {
+            return windowExtreme(from, to, false);
+        }
+
+        private long windowExtreme(long from, long to, boolean min) {
+            WindowIndex<B> index = requireIndex();
+            int visibleCount = Math.min(exposedBuckets, filled);
+            int newestIndex = writeIndex;
+            int oldestIndex = (newestIndex - (visibleCount - 1) + maxBuckets) % maxBuckets;
+
+            int first = firstOffset(oldestIndex, visibleCount, from);
+            int end = firstOffset(oldestIndex, visibleCount, to);
+            long result = min ? Long.MAX_VALUE : Long.MIN_VALUE;
+            if (first >= end)
+                return result;
+            if (end == visibleCount) {
+                result = index.metric(buckets[newestIndex]);
+                end--;
+            }
+            if (first < end) {
+                int start = (oldestIndex + first) % maxBuckets;
+                result = min
+                        ? Math.min(result, index.min(start, end - first))
+                        : Math.max(result, index.max(start, end - first));
+            }
+            return result;
+        }
+
+        private WindowIndex<B> requireIndex() {
+            if (windowIndex == null)
+                throw new IllegalStateException("Buffer was created without an indexed metric");
+            return windowIndex;
+        }
+
+        // Logical binary search over circular buffer:
+        // first offset from oldestIndex with ts >= startTimestamp (or visibleCount if none)
+        private int firstOffset(int oldestIndex, int visibleCount, long startTimestamp) {
+            if (dense && visibleCount > 0) {
+                // every bucket starts its period and the periods are consecutive: the offset is a period distance
+                long oldestPeriod = periodOf(buckets[oldestIndex].timestamp());
+                long offset = -Math.floorDiv(-startTimestamp, periodMillis) - oldestPeriod;
+                return (int) Math.max(0, Math.min(visibleCount, offset));
+            }
+            int low = 0;
+            int high = visibleCount - 1;
+
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int idx = (oldestIndex + mid) % maxBuckets;
+                long ts = buckets[idx].timestamp();
+
+                if (ts < startTimestamp) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+
+        // an arithmetic shift rounds towards negative infinity like floorDiv
         private long periodOf(long timestamp) {
-            return Math.floorDiv(timestamp, periodMillis);
+            return periodShift >= 0 ? timestamp >> periodShift : Math.floorDiv(timestamp, periodMillis);
+        }
+
+        private long periodStart(long timestamp) {
+            return periodShift >= 0 ? timestamp & -periodMillis : Math.floorDiv(timestamp, periodMillis) * periodMillis;
         }
     }
 }
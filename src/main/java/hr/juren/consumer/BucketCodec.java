@@ -0,0 +1,18 @@
+package hr.juren.consumer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary form of a bucket's state for snapshots, see {@link AggregableRollingBuffer#writeSnapshot}. The snapshot
+ * format stores the timestamp itself, delta encoded, so the codec only writes the aggregated state.
+ */
+public interface BucketCodec<B> {
+
+    /** Upper bound of the bytes {@link #encode} writes for one bucket. */
+    int maxBytes();
+
+    void encode(B bucket, ByteBuffer out);
+
+    /** Restores the state written by {@link #encode} into {@code bucket}, including its timestamp. */
+    void decode(ByteBuffer in, long timestamp, B bucket);
+}
@@ -0,0 +1,67 @@
+package hr.juren.consumer;
+
+/**
+ * Primitive storage for the buckets of one key, addressed by slot index {@code [0, maxBuckets)}.
+ */
+interface BucketColumns {
+
+    long timestamp(int slot);
+
+    long count(int slot);
+
+    double sum(int slot);
+
+    double min(int slot);
+
+    double max(int slot);
+
+    void reset(int slot, long timestamp, double value);
+
+    void aggregate(int slot, double value);
+
+    // aggregates over slots [from, to), a run without wrap-around
+
+    default long count(int from, int to) {
+        long count = 0;
+        for (int slot = from; slot < to; slot++)
+            count += count(slot);
+        return count;
+    }
+
+    default double sum(int from, int to) {
+        double sum = 0;
+        for (int slot = from; slot < to; slot++)
+            sum += sum(slot);
+        return sum;
+    }
+
+    default double min(int from, int to) {
+        double min = Double.POSITIVE_INFINITY;
+        for (int slot = from; slot < to; slot++)
+            min = Math.min(min, min(slot));
+        return min;
+    }
+
+    default double max(int from, int to) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int slot = from; slot < to; slot++)
+            max = Math.max(max, max(slot));
+        return max;
+    }
+
+    /** Slot of the most recent bucket when the storage was opened, 0 for fresh storage. */
+    default int restoredWriteIndex() {
+        return 0;
+    }
+
+    /** Gives the storage back, called for the storage of a buffer that lost the race to be published. */
+    default void release() {
+    }
+
+    /** Records the buffer position after an update, persistent storage keeps it in its header. */
+    default void commit(int writeIndex, long lastTimestamp) {
+    }
+
+    default void flush() {
+    }
+}
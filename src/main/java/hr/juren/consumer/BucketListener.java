@@ -0,0 +1,16 @@
+package hr.juren.consumer;
+
+/**
+ * Callbacks from a {@link BSRollingBuffer.BSBuffer} writer. They run on the writing thread, inside the update,
+ * so they must be quick and must not write to the same buffer.
+ */
+public interface BucketListener<B> {
+
+    /** The buffer moved on to a newer period; with allowed lateness, late values may still change the bucket. */
+    default void onClose(B bucket) {
+    }
+
+    /** The bucket is about to be reset for a newer period, its contents are lost afterwards. */
+    default void onEvict(B bucket) {
+    }
+}
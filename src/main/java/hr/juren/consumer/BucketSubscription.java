@@ -0,0 +1,59 @@
+package hr.juren.consumer;
+
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * One subscriber of {@link AggregableRollingBuffer#subscribe}. Writers copy a closed bucket and offer it to a
+ * {@link SubmissionPublisher}, which buffers it and delivers on its executor as far as the subscriber has requested;
+ * an offer never waits, a bucket that does not fit into a full buffer is dropped for this subscriber.
+ */
+public final class BucketSubscription<K, B, R> implements AutoCloseable {
+
+    private final Predicate<? super K> keys;
+    private final Function<? super B, ? extends R> copy;
+    private final SubmissionPublisher<ClosedBucket<K, R>> publisher;
+    private final Consumer<? super BucketSubscription<K, B, R>> onClose;
+    private final LongAdder dropped = new LongAdder();
+
+    BucketSubscription(Predicate<? super K> keys, Function<? super B, ? extends R> copy, int bufferSize,
+                       Flow.Subscriber<? super ClosedBucket<K, R>> subscriber,
+                       Consumer<? super BucketSubscription<K, B, R>> onClose) {
+        this.keys = keys;
+        this.copy = copy;
+        this.publisher = new SubmissionPublisher<>(ForkJoinPool.commonPool(), bufferSize);
+        this.onClose = onClose;
+        this.publisher.subscribe(subscriber);
+    }
+
+    // writer thread
+    void offer(K key, B bucket) {
+        if (!keys.test(key))
+            return;
+        try {
+            publisher.offer(new ClosedBucket<>(key, copy.apply(bucket)), (s, item) -> {
+                dropped.increment();
+                return false;
+            });
+        } catch (IllegalStateException e) {
+            // closed concurrently
+        }
+    }
+
+    /** Buckets not delivered because the subscriber's buffer was full. */
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    /** Stops publishing and completes the subscriber once the buffered buckets are delivered. */
+    @Override
+    public void close() {
+        onClose.accept(this);
+        publisher.close();
+    }
+}
@@ -0,0 +1,77 @@
+package hr.juren.consumer;
+
+/**
+ * Optional behaviour shared by the buffers of an {@link AggregableRollingBuffer}.
+ *
+ * @param concurrentWriters     allow several threads to update the same key; writers serialize on a per-buffer
+ *                              sequence claimed with CAS and a value that lost the race against a rollover is
+ *                              aggregated into the still exposed bucket of its own period
+ * @param allowedLatenessMillis when positive, timestamps no longer have to increase: a value at most this much
+ *                              older than the newest one is aggregated into the bucket of its own period, an
+ *                              older one is counted as dropped instead of rejected
+ * @param idleTtlMillis         when positive, a background sweeper removes keys that received no value for this
+ *                              long
+ * @param maxKeys               when positive, the sweeper also evicts the least recently written keys (CLOCK
+ *                              reference bits) while there are more keys than this; the bound is soft between sweeps
+ * @param snapshotReads         writers stamp every bucket they touch (a per-bucket seqlock), enabling the snapshot
+ *                              reads that retry a bucket instead of observing it half written
+ * @param rotationTimer         when not null, the wheel advances every buffer at its period boundaries (wall clock)
+ *                              and writes a cleared bucket for every period, also for silent keys; buckets must
+ *                              implement {@link MergeableBucket} and writers serialize as with concurrentWriters
+ * @param directIndex           one bucket per period without the wheel: a write that skips periods writes a
+ *                              cleared bucket for each of them, so a timestamp's slot is computed instead of binary
+ *                              searched; buckets must implement {@link MergeableBucket}, values within the open
+ *                              period may arrive in any order
+ * @param poolBuffers           buffers of evicted keys are cleared and reused for new keys one sweep interval after
+ *                              the eviction, instead of being left to the GC; a writer or reader that stalls longer
+ *                              than that on an evicted key's buffer may then touch the new key's buckets
+ */
+public record BufferOptions(boolean concurrentWriters, long allowedLatenessMillis, long idleTtlMillis, int maxKeys,
+                            boolean snapshotReads, TimingWheel rotationTimer, boolean directIndex,
+                            boolean poolBuffers) {
+
+    public static final BufferOptions DEFAULT = new BufferOptions(false, 0, 0, 0, false, null, false, false);
+
+    public BufferOptions {
+        if (allowedLatenessMillis < 0)
+            throw new IllegalArgumentException("allowedLatenessMillis >= 0 required");
+        if (idleTtlMillis < 0 || maxKeys < 0)
+            throw new IllegalArgumentException("idleTtlMillis >= 0 and maxKeys >= 0 required");
+    }
+
+    public BufferOptions withConcurrentWriters(boolean concurrentWriters) {
+        return new BufferOptions(concurrentWriters, allowedLatenessMillis, idleTtlMillis, maxKeys, snapshotReads, rotationTimer, directIndex, poolBuffers);
+    }
+
+    public BufferOptions withAllowedLateness(long allowedLatenessMillis) {
+        return new BufferOptions(concurrentWriters, allowedLatenessMillis, idleTtlMillis, maxKeys, snapshotReads, rotationTimer, directIndex, poolBuffers);
+    }
+
+    public BufferOptions withIdleTtl(long idleTtlMillis) {
+        return new BufferOptions(concurrentWriters, allowedLatenessMillis, idleTtlMillis, maxKeys, snapshotReads, rotationTimer, directIndex, poolBuffers);
+    }
+
+    public BufferOptions withMaxKeys(int maxKeys) {
+        return new BufferOptions(concurrentWriters, allowedLatenessMillis, idleTtlMillis, maxKeys, snapshotReads, rotationTimer, directIndex, poolBuffers);
+    }
+
+    public BufferOptions withSnapshotReads(boolean snapshotReads) {
+        return new BufferOptions(concurrentWriters, allowedLatenessMillis, idleTtlMillis, maxKeys, snapshotReads, rotationTimer, directIndex, poolBuffers);
+    }
+
+    public BufferOptions withRotationTimer(TimingWheel rotationTimer) {
+        return new BufferOptions(concurrentWriters, allowedLatenessMillis, idleTtlMillis, maxKeys, snapshotReads, rotationTimer, directIndex, poolBuffers);
+    }
+
+    public BufferOptions withDirectIndex(boolean directIndex) {
+        return new BufferOptions(concurrentWriters, allowedLatenessMillis, idleTtlMillis, maxKeys, snapshotReads, rotationTimer, directIndex, poolBuffers);
+    }
+
+    public BufferOptions withBufferPooling(boolean poolBuffers) {
+        return new BufferOptions(concurrentWriters, allowedLatenessMillis, idleTtlMillis, maxKeys, snapshotReads, rotationTimer, directIndex, poolBuffers);
+    }
+
+    boolean evictsKeys() {
+        return idleTtlMillis > 0 || maxKeys > 0;
+    }
+}
@@ -0,0 +1,7 @@
+package hr.juren.consumer;
+
+/**
+ * A copy of a closed bucket of {@code key}, as pushed to the subscribers of {@link AggregableRollingBuffer#subscribe}.
+ */
+public record ClosedBucket<K, R>(K key, R bucket) {
+}
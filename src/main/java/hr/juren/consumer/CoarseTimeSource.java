@@ -0,0 +1,40 @@
+package hr.juren.consumer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link TimeSource} refreshed by a daemon thread every {@code resolutionMillis}: a read is one volatile load and
+ * lags the OS clock by at most the resolution. Meant to be shared by all writers of a process.
+ */
+public final class CoarseTimeSource implements TimeSource, AutoCloseable {
+
+    private final Thread ticker;
+    private volatile long now = System.currentTimeMillis();
+    private volatile boolean closed;
+
+    public CoarseTimeSource(long resolutionMillis) {
+        if (resolutionMillis < 1)
+            throw new IllegalArgumentException("resolutionMillis >= 1 required");
+        long resolutionNanos = TimeUnit.MILLISECONDS.toNanos(resolutionMillis);
+        this.ticker = new Thread(() -> {
+            while (!closed) {
+                LockSupport.parkNanos(resolutionNanos);
+                now = System.currentTimeMillis();
+            }
+        }, "rolling-buffer-clock");
+        this.ticker.setDaemon(true);
+        this.ticker.start();
+    }
+
+    @Override
+    public long millis() {
+        return now;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(ticker);
+    }
+}
@@ -0,0 +1,236 @@
+package hr.juren.consumer;
+
+import hr.juren.consumer.BSRollingBuffer.BSBuffer;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Long retention per key without a bucket object per period: the newest {@code hotBuckets} buckets live in a
+ * preallocated buffer and every bucket it evicts is compressed into the key's cold blocks, Gorilla style
+ * (delta-of-delta timestamps, XORed state). A month of one-minute buckets then costs a few bytes per bucket.
+ * Reads decode the cold blocks lazily, oldest first, and continue with the hot buckets.
+ * <p>
+ * The state is taken with a {@link BucketCodec}; it compresses best when every 64-bit word holds one field, as with
+ * the built-in codecs.
+ */
+public final class ColdTierRollingBuffer<K, B extends Bucket<V>, V extends TimeStamped> {
+
+    static final int BLOCK_BUCKETS = 120;
+
+    private final ConcurrentKeyTable<K, Series> series = new ConcurrentKeyTable<>();
+    private final Supplier<B> bucketSupplier;
+    private final int hotBuckets;
+    private final int periodMillis;
+    private final int coldBuckets;
+    private final BucketCodec<? super B> codec;
+    private final BufferOptions options;
+
+    public ColdTierRollingBuffer(Supplier<B> bucketSupplier, int hotBuckets, int periodMillis, int coldBuckets,
+                                 BucketCodec<? super B> codec) {
+        this(bucketSupplier, hotBuckets, periodMillis, coldBuckets, codec, BufferOptions.DEFAULT);
+    }
+
+    /**
+     * @param hotBuckets  buckets kept uncompressed, all of them exposed
+     * @param coldBuckets at least this many of the newest evicted buckets are kept compressed, older ones are dropped
+     *                    a block of {@value #BLOCK_BUCKETS} at a time
+     */
+    public ColdTierRollingBuffer(Supplier<B> bucketSupplier, int hotBuckets, int periodMillis, int coldBuckets,
+                                 BucketCodec<? super B> codec, BufferOptions options) {
+        if (hotBuckets < 1 || coldBuckets < 0)
+            throw new IllegalArgumentException("hotBuckets >= 1 and coldBuckets >= 0 required");
+        this.bucketSupplier = Objects.requireNonNull(bucketSupplier);
+        this.hotBuckets = hotBuckets;
+        this.periodMillis = periodMillis;
+        this.coldBuckets = coldBuckets;
+        this.codec = Objects.requireNonNull(codec);
+        this.options = Objects.requireNonNull(options);
+    }
+
+    public void put(K key, V value) {
+        seriesFor(key).hot.update(value);
+    }
+
+    public void putAll(K key, V[] values, int from, int to) {
+        seriesFor(key).hot.updateAll(values, from, to);
+    }
+
+    /**
+     * Buckets starting at {@code startTimestamp}, oldest first. A cold bucket is decoded into a fresh bucket once the
+     * iterator reaches it, the hot ones are returned as they are.
+     */
+    public Iterator<B> iterator(K key, long startTimestamp) {
+        var s = series.get(key);
+        if (s == null) return Collections.emptyIterator();
+
+        return new Iterator<>() {
+            GorillaBlock[] blocks = s.blocks;
+            int block = firstBlock(blocks, startTimestamp);
+            GorillaBlock.Decoder decoder;
+            long lastCold = Long.MIN_VALUE;
+            long coldLimit = Long.MAX_VALUE; // timestamp of the first hot bucket once the hot iterator exists
+            Iterator<B> hot;
+            B hotHead;
+
+            @Override
+            public boolean hasNext() {
+                for (; ; ) {
+                    if (decoder != null && decoder.hasNext()) {
+                        if (decoder.peekTimestamp() < coldLimit)
+                            return true;
+                        decoder = null;
+                        block = blocks.length;
+                    } else if (block < blocks.length) {
+                        decoder = blocks[block++].decoder();
+                        long from = Math.max(startTimestamp, lastCold + 1);
+                        while (decoder.hasNext() && decoder.peekTimestamp() < from)
+                            decoder.skip();
+                    } else if (hot == null) {
+                        hot = s.hot.iterator(Math.max(startTimestamp, lastCold + 1));
+                        hotHead = hot.hasNext() ? hot.next() : null;
+                        coldLimit = hotHead == null ? Long.MAX_VALUE : hotHead.timestamp();
+                        // buckets evicted since the blocks were read are in neither view, decode them first
+                        blocks = s.blocks;
+                        block = firstBlock(blocks, Math.max(startTimestamp, lastCold + 1));
+                        decoder = null;
+                    } else {
+                        return hotHead != null;
+                    }
+                }
+            }
+
+            @Override
+            public B next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                if (decoder != null && decoder.hasNext()) {
+                    B bucket = bucketSupplier.get();
+                    decoder.next(bucket, codec);
+                    lastCold = bucket.timestamp();
+                    return bucket;
+                }
+                B result = hotHead;
+                hotHead = hot.hasNext() ? hot.next() : null;
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Calls {@code action} for every bucket with a timestamp in {@code [from, to)}, oldest first. Cold buckets are
+     * decoded into one bucket reused between calls, it must not be kept.
+     */
+    public void forEach(K key, long from, long to, Consumer<? super B> action) {
+        var s = series.get(key);
+        if (s == null) return;
+        B scratch = bucketSupplier.get();
+        long lastCold = decode(s.blocks, from, to, scratch, action);
+        long hotFrom = Math.max(from, lastCold + 1);
+        var gap = new Object() {
+            boolean decoded;
+        };
+        s.hot.forEach(hotFrom, to, b -> {
+            if (!gap.decoded) {
+                // buckets evicted since the blocks were read come before the first hot one
+                gap.decoded = true;
+                decode(s.blocks, hotFrom, b.timestamp(), scratch, action);
+            }
+            action.accept(b);
+        });
+        if (!gap.decoded)
+            decode(s.blocks, hotFrom, to, scratch, action);
+    }
+
+    // decodes the cold buckets in [from, to) into scratch, returns the last timestamp decoded
+    private long decode(GorillaBlock[] blocks, long from, long to, B scratch, Consumer<? super B> action) {
+        long last = Long.MIN_VALUE;
+        for (int i = firstBlock(blocks, from); i < blocks.length; i++) {
+            var decoder = blocks[i].decoder();
+            while (decoder.hasNext()) {
+                long timestamp = decoder.peekTimestamp();
+                if (timestamp >= to)
+                    return last;
+                if (timestamp < from) {
+                    decoder.skip();
+                    continue;
+                }
+                decoder.next(scratch, codec);
+                last = timestamp;
+                action.accept(scratch);
+            }
+        }
+        return last;
+    }
+
+    /** Number of compressed buckets of {@code key}. */
+    public long coldCount(K key) {
+        var s = series.get(key);
+        if (s == null) return 0;
+        long count = 0;
+        for (var block : s.blocks)
+            count += block.count();
+        return count;
+    }
+
+    /** Heap bytes of the compressed buckets of {@code key}. */
+    public long coldBytes(K key) {
+        var s = series.get(key);
+        if (s == null) return 0;
+        long bytes = 0;
+        for (var block : s.blocks)
+            bytes += block.bytes();
+        return bytes;
+    }
+
+    // last block starting at or before from, the ones before it are older than from
+    private static int firstBlock(GorillaBlock[] blocks, long from) {
+        int first = 0;
+        while (first + 1 < blocks.length && blocks[first + 1].firstTimestamp <= from)
+            first++;
+        return first;
+    }
+
+    private Series seriesFor(K key) {
+        var s = series.get(key);
+        if (s == null)
+            s = series.computeIfAbsent(key, k -> new Series());
+        return s;
+    }
+
+    private final class Series implements BucketListener<B> {
+
+        final BSBuffer<B, V> hot = new BSBuffer<>(hotBuckets, hotBuckets, periodMillis, bucketSupplier, options, null, this);
+        // oldest first, only the last one is still appended to; replaced as a whole so readers see a consistent chain
+        volatile GorillaBlock[] blocks = new GorillaBlock[0];
+
+        // runs on the writer, before the hot buffer reuses the bucket
+        @Override
+        public void onEvict(B bucket) {
+            var current = blocks;
+            var open = current.length == 0 ? null : current[current.length - 1];
+            if (open == null || open.count() == BLOCK_BUCKETS) {
+                if (open != null)
+                    open.seal();
+                open = new GorillaBlock(bucket.timestamp(), codec.maxBytes());
+                blocks = withBlock(current, open);
+            }
+            open.append(bucket, bucket.timestamp(), codec);
+        }
+
+        // appends the block and drops the oldest full blocks not needed to keep coldBuckets
+        private GorillaBlock[] withBlock(GorillaBlock[] current, GorillaBlock block) {
+            int drop = 0;
+            while (drop < current.length && (current.length - drop - 1) * BLOCK_BUCKETS >= coldBuckets)
+                drop++;
+            var next = Arrays.copyOfRange(current, drop, current.length + 1);
+            next[next.length - 1] = block;
+            return next;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package hr.juren.consumer;
+
+/**
+ * Reductions over a contiguous range {@code [from, to)} of a primitive column. {@link #INSTANCE} uses the Vector
+ * API when the JVM runs with {@code --add-modules jdk.incubator.vector} and plain loops otherwise.
+ */
+interface ColumnKernels {
+
+    ColumnKernels INSTANCE = load();
+
+    long sum(long[] column, int from, int to);
+
+    double sum(double[] column, int from, int to);
+
+    double min(double[] column, int from, int to);
+
+    double max(double[] column, int from, int to);
+
+    private static ColumnKernels load() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                // by name, so the vector classes are never linked when the module is absent
+                return (ColumnKernels) Class.forName("hr.juren.consumer.VectorKernels").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // fall through to the scalar loops
+            }
+        }
+        return new Scalar();
+    }
+
+    final class Scalar implements ColumnKernels {
+
+        @Override
+        public long sum(long[] column, int from, int to) {
+            long sum = 0;
+            for (int i = from; i < to; i++)
+                sum += column[i];
+            return sum;
+        }
+
+        @Override
+        public double sum(double[] column, int from, int to) {
+            double sum = 0;
+            for (int i = from; i < to; i++)
+                sum += column[i];
+            return sum;
+        }
+
+        @Override
+        public double min(double[] column, int from, int to) {
+            double min = Double.POSITIVE_INFINITY;
+            for (int i = from; i < to; i++)
+                min = Math.min(min, column[i]);
+            return min;
+        }
+
+        @Override
+        public double max(double[] column, int from, int to) {
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = from; i < to; i++)
+                max = Math.max(max, column[i]);
+            return max;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package hr.juren.consumer;
+
+/**
+ * Flyweight view over one slot of a {@link ColumnarBuffer}. Iterators reposition the same instance on every
+ * {@code next()}, so copy the values out if they are needed after advancing.
+ */
+public final class ColumnarBucket implements Bucket<DoubleValue> {
+
+    private final BucketColumns columns;
+    private int slot;
+
+    ColumnarBucket(BucketColumns columns) {
+        this.columns = columns;
+    }
+
+    ColumnarBucket moveTo(int slot) {
+        this.slot = slot;
+        return this;
+    }
+
+    @Override
+    public long timestamp() {
+        return columns.timestamp(slot);
+    }
+
+    public long count() {
+        return columns.count(slot);
+    }
+
+    public double sum() {
+        return columns.sum(slot);
+    }
+
+    public double min() {
+        return columns.min(slot);
+    }
+
+    public double max() {
+        return columns.max(slot);
+    }
+
+    public double mean() {
+        long count = count();
+        return count == 0 ? 0 : sum() / count;
+    }
+
+    @Override
+    public void reset(DoubleValue value) {
+        columns.reset(slot, value.timestamp(), value.value());
+    }
+
+    @Override
+    public void aggregate(DoubleValue value) {
+        columns.aggregate(slot, value.value());
+    }
+
+    @Override
+    public String toString() {
+        return "ColumnarBucket{" +
+                "ts=" + timestamp() +
+                ", count=" + count() +
+                ", sum=" + sum() +
+                ", min=" + min() +
+                ", max=" + max() +
+                '}';
+    }
+}
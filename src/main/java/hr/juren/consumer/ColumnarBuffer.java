@@ -0,0 +1,156 @@
+package hr.juren.consumer;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Same rolling semantics as {@link BSRollingBuffer.BSBuffer}, but every bucket keeps count, sum, min and max
+ * of {@code double} values in primitive columns instead of a bucket object per slot.
+ */
+public final class ColumnarBuffer {
+
+    private final int maxBuckets;
+    private final int exposedBuckets;
+    private final long periodMillis;
+    private final BucketColumns columns;
+
+    private volatile int writeIndex = 0; // points to the most recent bucket
+
+    public ColumnarBuffer(int maxBuckets, int exposedBuckets, long periodMillis) {
+        this(maxBuckets, exposedBuckets, periodMillis, HeapColumns.allocate(maxBuckets));
+    }
+
+    ColumnarBuffer(int maxBuckets, int exposedBuckets, long periodMillis, BucketColumns columns) {
+        if (exposedBuckets > maxBuckets)
+            throw new IllegalArgumentException("exposedBuckets <= maxBuckets required");
+        this.maxBuckets = maxBuckets;
+        this.exposedBuckets = exposedBuckets;
+        this.periodMillis = periodMillis;
+        this.columns = columns;
+        this.writeIndex = columns.restoredWriteIndex();
+    }
+
+    public void update(long timestamp, double value) {
+        int index = writeIndex;
+        long lastTs = columns.timestamp(index);
+        if (timestamp <= lastTs)
+            throw new IllegalArgumentException("Timestamps must be strictly increasing");
+
+        if (periodOf(timestamp) != periodOf(lastTs)) {
+            // advance to next bucket
+            index = index + 1 == maxBuckets ? 0 : index + 1;
+            columns.reset(index, timestamp, value);
+            writeIndex = index;
+        } else {
+            // same period, aggregate
+            columns.aggregate(index, value);
+        }
+        columns.commit(index, timestamp);
+    }
+
+    /** Forces persistent storage to disk, a no-op for heap columns. */
+    public void flush() {
+        columns.flush();
+    }
+
+    void release() {
+        columns.release();
+    }
+
+    public Iterator<ColumnarBucket> iterator(long startTimestamp) {
+        int newestIndex = writeIndex;
+        int visibleCount = Math.min(exposedBuckets, maxBuckets);
+        int oldestIndex = (newestIndex - (visibleCount - 1) + maxBuckets) % maxBuckets;
+        int low = offsetOf(oldestIndex, visibleCount, startTimestamp);
+
+        int startOffset = Math.min(low, exposedBuckets);
+        final int startIdx = (oldestIndex + startOffset) % maxBuckets;
+        final int count = visibleCount - startOffset; // by count: with exposedBuckets == maxBuckets start == end
+        final ColumnarBucket view = new ColumnarBucket(columns);
+
+        return new Iterator<>() {
+            int i = startIdx;
+            int remaining = count;
+
+            @Override
+            public boolean hasNext() {
+                return remaining > 0;
+            }
+
+            @Override
+            public ColumnarBucket next() {
+                if (remaining == 0)
+                    throw new NoSuchElementException();
+                view.moveTo(i);
+                i = (i + 1) >= maxBuckets ? 0 : i + 1;
+                remaining--;
+                return view;
+            }
+        };
+    }
+
+    // Window reductions over the exposed buckets with a timestamp in [from, to), as at most two contiguous runs of
+    // slots (the ring wraps around once); heap columns reduce each run with vector instructions when available
+
+    public long windowCount(long from, long to) {
+        long window = window(from, to);
+        int first = (int) (window >>> 32), count = (int) window, split = Math.min(count, maxBuckets - first);
+        long result = columns.count(first, first + split);
+        return split < count ? result + columns.count(0, count - split) : result;
+    }
+
+    public double windowSum(long from, long to) {
+        long window = window(from, to);
+        int first = (int) (window >>> 32), count = (int) window, split = Math.min(count, maxBuckets - first);
+        double result = columns.sum(first, first + split);
+        return split < count ? result + columns.sum(0, count - split) : result;
+    }
+
+    /** Smallest value in the window, {@code +Infinity} for an empty window. */
+    public double windowMin(long from, long to) {
+        long window = window(from, to);
+        int first = (int) (window >>> 32), count = (int) window, split = Math.min(count, maxBuckets - first);
+        double result = columns.min(first, first + split);
+        return split < count ? Math.min(result, columns.min(0, count - split)) : result;
+    }
+
+    /** Largest value in the window, {@code -Infinity} for an empty window. */
+    public double windowMax(long from, long to) {
+        long window = window(from, to);
+        int first = (int) (window >>> 32), count = (int) window, split = Math.min(count, maxBuckets - first);
+        double result = columns.max(first, first + split);
+        return split < count ? Math.max(result, columns.max(0, count - split)) : result;
+    }
+
+    // first slot in the high and bucket count in the low half
+    private long window(long from, long to) {
+        int visibleCount = Math.min(exposedBuckets, maxBuckets);
+        int oldestIndex = (writeIndex - (visibleCount - 1) + maxBuckets) % maxBuckets;
+        int start = offsetOf(oldestIndex, visibleCount, from);
+        int end = offsetOf(oldestIndex, visibleCount, to);
+        return (long) ((oldestIndex + start) % maxBuckets) << 32 | Math.max(0, end - start);
+    }
+
+    // logical binary search over circular buffer: offset of the first written bucket at or after timestamp
+    private int offsetOf(int oldestIndex, int visibleCount, long timestamp) {
+        int low = 0;
+        int high = visibleCount - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int idx = (oldestIndex + mid) % maxBuckets;
+            long ts = columns.timestamp(idx);
+
+            if (ts == 0 || ts < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private long periodOf(long timestamp) {
+        return Math.floorDiv(timestamp, periodMillis);
+    }
+}
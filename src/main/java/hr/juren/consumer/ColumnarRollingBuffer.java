@@ -0,0 +1,122 @@
+package hr.juren.consumer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Multi-key counterpart of {@link AggregableRollingBuffer} for numeric values. Buckets of all keys are stored
+ * in shared primitive slabs, so there are no per-bucket objects for the GC to trace. Buffers created with
+ * {@link #open} keep every key in its own memory-mapped file and come back with their window after a restart.
+ */
+public final class ColumnarRollingBuffer<K> {
+
+    static final String FILE_SUFFIX = ".rbuf";
+
+    private final ConcurrentKeyTable<K, ColumnarBuffer> buffers = new ConcurrentKeyTable<>();
+    private final Function<K, BucketColumns> columnsFactory;
+    private final int maxBuckets;
+    private final int exposedBuckets;
+    private final int periodMillis;
+
+    public ColumnarRollingBuffer(int maxBuckets, int exposedBuckets, int periodMillis) {
+        this(maxBuckets, exposedBuckets, periodMillis, slabColumns(maxBuckets));
+    }
+
+    private ColumnarRollingBuffer(int maxBuckets, int exposedBuckets, int periodMillis, Function<K, BucketColumns> columnsFactory) {
+        if (exposedBuckets > maxBuckets)
+            throw new IllegalArgumentException("exposedBuckets <= maxBuckets required");
+        this.columnsFactory = columnsFactory;
+        this.maxBuckets = maxBuckets;
+        this.exposedBuckets = exposedBuckets;
+        this.periodMillis = periodMillis;
+    }
+
+    /**
+     * Opens a persistent buffer in {@code directory}, restoring every key that has a file there.
+     * {@code fileName} and {@code keyOf} must be inverse functions and produce valid file names.
+     */
+    public static <K> ColumnarRollingBuffer<K> open(Path directory,
+                                                    int maxBuckets,
+                                                    int exposedBuckets,
+                                                    int periodMillis,
+                                                    Function<K, String> fileName,
+                                                    Function<String, K> keyOf) throws IOException {
+        Objects.requireNonNull(fileName);
+        Files.createDirectories(directory);
+        Function<K, BucketColumns> columns = key -> {
+            try {
+                return MappedColumns.open(directory.resolve(fileName.apply(key) + FILE_SUFFIX), maxBuckets, periodMillis);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+        var buffer = new ColumnarRollingBuffer<>(maxBuckets, exposedBuckets, periodMillis, columns);
+        try (var files = Files.newDirectoryStream(directory, "*" + FILE_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                buffer.bufferFor(keyOf.apply(name.substring(0, name.length() - FILE_SUFFIX.length())));
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return buffer;
+    }
+
+    public void put(K key, long timestamp, double value) {
+        bufferFor(key).update(timestamp, value);
+    }
+
+    public void put(K key, DoubleValue value) {
+        put(key, value.timestamp(), value.value());
+    }
+
+    public Iterator<ColumnarBucket> iterator(K key, long startTimestamp) {
+        var buffer = buffers.get(key);
+        if (buffer == null) return Collections.emptyIterator();
+        return buffer.iterator(startTimestamp);
+    }
+
+    public long windowCount(K key, long from, long to) {
+        var buffer = buffers.get(key);
+        return buffer == null ? 0 : buffer.windowCount(from, to);
+    }
+
+    public double windowSum(K key, long from, long to) {
+        var buffer = buffers.get(key);
+        return buffer == null ? 0 : buffer.windowSum(from, to);
+    }
+
+    public double windowMin(K key, long from, long to) {
+        var buffer = buffers.get(key);
+        return buffer == null ? Double.POSITIVE_INFINITY : buffer.windowMin(from, to);
+    }
+
+    public double windowMax(K key, long from, long to) {
+        var buffer = buffers.get(key);
+        return buffer == null ? Double.NEGATIVE_INFINITY : buffer.windowMax(from, to);
+    }
+
+    /** Forces every memory-mapped key file to disk, a no-op for heap buffers. */
+    public void flush() {
+        buffers.forEach((key, buffer) -> buffer.flush());
+    }
+
+    private ColumnarBuffer bufferFor(K key) {
+        var buffer = buffers.get(key);
+        if (buffer == null)
+            buffer = buffers.computeIfAbsent(key, k -> new ColumnarBuffer(maxBuckets, exposedBuckets, periodMillis, columnsFactory.apply(k)),
+                    ColumnarBuffer::release);
+        return buffer;
+    }
+
+    private static <K> Function<K, BucketColumns> slabColumns(int maxBuckets) {
+        var slab = new HeapColumns.Slab(maxBuckets);
+        return key -> slab.allocate();
+    }
+}
@@ -0,0 +1,295 @@
+package hr.juren.consumer;
+
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Open-addressing (linear probing) key registry. Lookups never lock, inserts claim an empty slot with CAS.
+ * Entries are never moved within a table; growing freezes the old table (empty slots become MOVED) and
+ * copies it into a table twice the size. Lookups that hit MOVED continue in the new table.
+ * Removal is rare (idle key eviction): it holds the resize lock and leaves a TOMBSTONE that probes skip,
+ * tombstones are dropped by the next resize.
+ */
+final class ConcurrentKeyTable<K, V> {
+
+    private static final Object MOVED = new Object();
+    private static final Object TOMBSTONE = new Object();
+    private static final int MIN_CAPACITY = 16;
+    private static final int SCAN_CHUNK = 1024;
+
+    private final Lock resizeLock = new ReentrantLock();
+    private volatile Table table;
+
+    ConcurrentKeyTable() {
+        this(MIN_CAPACITY / 2);
+    }
+
+    ConcurrentKeyTable(int expectedKeys) {
+        this.table = new Table(capacityFor(expectedKeys));
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(Object key) {
+        int hash = spread(key.hashCode());
+        Table t = table;
+        for (int i = hash & t.mask; ; ) {
+            Object o = t.slots.get(i);
+            if (o == null)
+                return null;
+            if (o == MOVED) {
+                // a null slot was frozen: the key is not in t, it can only be in the next table
+                if ((t = t.next) == null)
+                    return null;
+                i = hash & t.mask;
+                continue;
+            }
+            if (o != TOMBSTONE) {
+                var e = (Entry<K, V>) o;
+                if (e.hash == hash && (e.key == key || e.key.equals(key)))
+                    return e.value;
+            }
+            i = (i + 1) & t.mask;
+        }
+    }
+
+    V computeIfAbsent(K key, Function<? super K, ? extends V> factory) {
+        return computeIfAbsent(key, factory, v -> {
+        });
+    }
+
+    /**
+     * Like {@link #computeIfAbsent(Object, Function)}, but a value the factory created for a key that another thread
+     * inserted first is handed to {@code discarded}; it was never visible to other threads.
+     */
+    @SuppressWarnings("unchecked")
+    V computeIfAbsent(K key, Function<? super K, ? extends V> factory, Consumer<? super V> discarded) {
+        int hash = spread(key.hashCode());
+        Entry<K, V> created = null;
+        Table t = table;
+        for (int i = hash & t.mask; ; ) {
+            Object o = t.slots.get(i);
+            if (o == null) {
+                if (created == null)
+                    created = new Entry<>(hash, key, Objects.requireNonNull(factory.apply(key)));
+                if (t.slots.compareAndSet(i, null, created)) {
+                    if (t.used.incrementAndGet() > t.threshold)
+                        resize(t);
+                    return created.value;
+                }
+                continue; // lost the race for this slot, re-examine it
+            }
+            if (o == MOVED) {
+                t = awaitNext(t);
+                i = hash & t.mask;
+                continue;
+            }
+            if (o != TOMBSTONE) {
+                var e = (Entry<K, V>) o;
+                if (e.hash == hash && (e.key == key || e.key.equals(key))) {
+                    if (created != null)
+                        discarded.accept(created.value);
+                    return e.value;
+                }
+            }
+            i = (i + 1) & t.mask;
+        }
+    }
+
+    /**
+     * Removes {@code key} if it is still mapped to {@code value}.
+     */
+    @SuppressWarnings("unchecked")
+    boolean remove(Object key, V value) {
+        int hash = spread(key.hashCode());
+        resizeLock.lock();
+        try {
+            // no resize can run, so the current table is the only one holding the key
+            Table t = table;
+            for (int i = hash & t.mask; ; i = (i + 1) & t.mask) {
+                Object o = t.slots.get(i);
+                if (o == null)
+                    return false;
+                if (o == TOMBSTONE)
+                    continue;
+                var e = (Entry<K, V>) o;
+                if (e.hash == hash && (e.key == key || e.key.equals(key))) {
+                    if (!e.value.equals(value))
+                        return false;
+                    t.slots.set(i, TOMBSTONE);
+                    t.tombstones++;
+                    return true;
+                }
+            }
+        } finally {
+            resizeLock.unlock();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    void forEach(BiConsumer<? super K, ? super V> action) {
+        // entries are never removed from a frozen table, so the latest table seen holds every key inserted before
+        var slots = table.slots;
+        for (int i = 0; i < slots.length(); i++) {
+            Object o = slots.get(i);
+            if (o != null && o != MOVED && o != TOMBSTONE) {
+                var e = (Entry<K, V>) o;
+                action.accept(e.key, e.value);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface Folder<A, K, V> {
+        void fold(A accumulator, K key, V value);
+    }
+
+    /**
+     * Visits the entries like {@link #forEach}, in parallel on the common fork-join pool: the slots are split into
+     * ranges of {@code SCAN_CHUNK}, each range folds into its own accumulator and accumulators are combined pairwise.
+     */
+    <A> A parallelFold(Supplier<A> accumulator, Folder<A, ? super K, ? super V> folder, BinaryOperator<A> combiner) {
+        var slots = table.slots;
+        return ForkJoinPool.commonPool().invoke(new FoldTask<>(slots, 0, slots.length(), accumulator, folder, combiner));
+    }
+
+    int size() {
+        Table t = table;
+        return t.used.get() - t.tombstones;
+    }
+
+    private Table awaitNext(Table t) {
+        Table next = t.next;
+        if (next == null) {
+            // MOVED is only written while the resizer holds the lock, next is published before it is released
+            resizeLock.lock();
+            resizeLock.unlock();
+            next = t.next;
+        }
+        return next;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void resize(Table t) {
+        resizeLock.lock();
+        try {
+            if (table != t)
+                return;
+            var slots = t.slots;
+            // sized for the live entries (the usual doubling when there are no tombstones), so a table
+            // full of tombstones is rebuilt rather than grown
+            int live = t.used.get() - t.tombstones;
+            var next = new Table(capacityFor(live + (live >> 1) + 1));
+            for (int i = 0; i < slots.length(); i++) {
+                Object o;
+                while ((o = slots.get(i)) == null && !slots.compareAndSet(i, null, MOVED))
+                    Thread.onSpinWait();
+                if (o != null && o != TOMBSTONE)
+                    next.insert((Entry<K, V>) o);
+            }
+            t.next = next;
+            table = next;
+        } finally {
+            resizeLock.unlock();
+        }
+    }
+
+    private static int capacityFor(int expectedKeys) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedKeys * 2)
+            capacity <<= 1;
+        return capacity;
+    }
+
+    private static int spread(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static final class FoldTask<A, K, V> extends RecursiveTask<A> {
+        private static final long serialVersionUID = 1L;
+
+        private final AtomicReferenceArray<Object> slots;
+        private final int from;
+        private final int to;
+        private final Supplier<A> accumulator;
+        private final Folder<A, ? super K, ? super V> folder;
+        private final BinaryOperator<A> combiner;
+
+        FoldTask(AtomicReferenceArray<Object> slots, int from, int to, Supplier<A> accumulator,
+                 Folder<A, ? super K, ? super V> folder, BinaryOperator<A> combiner) {
+            this.slots = slots;
+            this.from = from;
+            this.to = to;
+            this.accumulator = accumulator;
+            this.folder = folder;
+            this.combiner = combiner;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected A compute() {
+            if (to - from > SCAN_CHUNK) {
+                int mid = (from + to) >>> 1;
+                var left = new FoldTask<>(slots, from, mid, accumulator, folder, combiner);
+                left.fork();
+                A right = new FoldTask<>(slots, mid, to, accumulator, folder, combiner).compute();
+                return combiner.apply(left.join(), right);
+            }
+            A result = accumulator.get();
+            for (int i = from; i < to; i++) {
+                Object o = slots.get(i);
+                if (o != null && o != MOVED && o != TOMBSTONE) {
+                    var e = (Entry<K, V>) o;
+                    folder.fold(result, e.key, e.value);
+                }
+            }
+            return result;
+        }
+    }
+
+    private static final class Entry<K, V> {
+        final int hash;
+        final K key;
+        final V value;
+
+        Entry(int hash, K key, V value) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private static final class Table {
+        final AtomicReferenceArray<Object> slots;
+        final int mask;
+        final int threshold;
+        final AtomicInteger used = new AtomicInteger(); // entries and tombstones
+        volatile int tombstones; // only written under resizeLock
+        volatile Table next;
+
+        Table(int capacity) {
+            this.slots = new AtomicReferenceArray<>(capacity);
+            this.mask = capacity - 1;
+            this.threshold = capacity >>> 1;
+        }
+
+        // only used while the table is still private to the resizer
+        void insert(Entry<?, ?> e) {
+            int i = e.hash & mask;
+            while (slots.get(i) != null)
+                i = (i + 1) & mask;
+            slots.set(i, e);
+            used.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package hr.juren.consumer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Number of values per period, for any value type.
+ */
+public final class CountBucket<V extends TimeStamped> implements MergeableBucket<CountBucket<V>, V> {
+
+    /** Snapshot codec, see {@link AggregableRollingBuffer#writeSnapshot}. */
+    public static <V extends TimeStamped> BucketCodec<CountBucket<V>> codec() {
+        return new BucketCodec<>() {
+            @Override
+            public int maxBytes() {
+                return 8;
+            }
+
+            @Override
+            public void encode(CountBucket<V> bucket, ByteBuffer out) {
+                out.putLong(bucket.count);
+            }
+
+            @Override
+            public void decode(ByteBuffer in, long timestamp, CountBucket<V> bucket) {
+                bucket.timestamp = timestamp;
+                bucket.count = in.getLong();
+            }
+        };
+    }
+
+    private long timestamp;
+    private long count;
+
+    @Override
+    public long timestamp() {
+        return timestamp;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    @Override
+    public void reset(V value) {
+        timestamp = value.timestamp();
+        count = 1;
+    }
+
+    @Override
+    public void aggregate(V value) {
+        count++;
+    }
+
+    @Override
+    public void clear(long timestamp) {
+        this.timestamp = timestamp;
+        count = 0;
+    }
+
+    @Override
+    public void merge(CountBucket<V> other) {
+        count += other.count;
+    }
+
+    @Override
+    public String toString() {
+        return "CountBucket{ts=" + timestamp + ", count=" + count + '}';
+    }
+}
@@ -0,0 +1,106 @@
+package hr.juren.consumer;
+
+import java.util.Arrays;
+
+/**
+ * HyperLogLog estimate of the number of distinct {@link LongValue#value()}s per period, e.g. user ids. The
+ * {@code 2^precision} one-byte registers are allocated once and cleared on {@code reset}; the standard error is
+ * {@code 1.04 / sqrt(2^precision)}, 1.6% for the default precision 12 (4 KiB per bucket).
+ * <p>
+ * Values are mixed with a 64-bit finalizer before use, ids only have to be distinct longs (hash strings to 64 bits
+ * first, a 32-bit {@code hashCode} collides long before the sketch loses accuracy). Merging takes the register-wise
+ * maximum, so the merge of a window's buckets estimates the distinct count of the whole window.
+ */
+public final class DistinctCountBucket implements MergeableBucket<DistinctCountBucket, LongValue> {
+
+    private final int precision;
+    private final byte[] registers;
+    private long timestamp;
+
+    public DistinctCountBucket() {
+        this(12);
+    }
+
+    public DistinctCountBucket(int precision) {
+        if (precision < 4 || precision > 18)
+            throw new IllegalArgumentException("4 <= precision <= 18 required");
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    @Override
+    public long timestamp() {
+        return timestamp;
+    }
+
+    public long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte r : registers) {
+            sum += Double.longBitsToDouble((1023L - r) << 52); // 2^-r
+            if (r == 0) zeros++;
+        }
+        double estimate = alpha(m) * m * m / sum;
+        // small range correction: linear counting while registers are still empty
+        if (estimate <= 2.5 * m && zeros > 0)
+            estimate = m * Math.log((double) m / zeros);
+        return Math.round(estimate);
+    }
+
+    @Override
+    public void reset(LongValue value) {
+        clear(value.timestamp());
+        aggregate(value);
+    }
+
+    @Override
+    public void aggregate(LongValue value) {
+        long hash = mix(value.value());
+        int index = (int) (hash >>> (64 - precision));
+        // rank of the first set bit in the remaining bits, the sentinel bit caps it at 64 - precision + 1
+        byte rank = (byte) (Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1);
+        if (rank > registers[index])
+            registers[index] = rank;
+    }
+
+    @Override
+    public void clear(long timestamp) {
+        this.timestamp = timestamp;
+        Arrays.fill(registers, (byte) 0);
+    }
+
+    @Override
+    public void merge(DistinctCountBucket other) {
+        if (other.precision != precision)
+            throw new IllegalArgumentException("Sketches have different precision");
+        byte[] mine = registers, theirs = other.registers;
+        // a plain counted loop without branches, which the JIT turns into vector max instructions
+        for (int i = 0; i < mine.length; i++)
+            mine[i] = (byte) Math.max(mine[i], theirs[i]);
+    }
+
+    private static double alpha(int m) {
+        return switch (m) {
+            case 16 -> 0.673;
+            case 32 -> 0.697;
+            case 64 -> 0.709;
+            default -> 0.7213 / (1 + 1.079 / m);
+        };
+    }
+
+    // murmur3 fmix64
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return "DistinctCountBucket{ts=" + timestamp + ", estimate=" + estimate() + '}';
+    }
+}
@@ -0,0 +1,82 @@
+package hr.juren.consumer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Count and sum of {@link DoubleValue}s per period.
+ */
+public final class DoubleSumBucket implements MergeableBucket<DoubleSumBucket, DoubleValue> {
+
+    /** Snapshot codec, see {@link AggregableRollingBuffer#writeSnapshot}. */
+    public static final BucketCodec<DoubleSumBucket> CODEC = new BucketCodec<>() {
+        @Override
+        public int maxBytes() {
+            return 16;
+        }
+
+        @Override
+        public void encode(DoubleSumBucket bucket, ByteBuffer out) {
+            out.putLong(bucket.count);
+            out.putDouble(bucket.sum);
+        }
+
+        @Override
+        public void decode(ByteBuffer in, long timestamp, DoubleSumBucket bucket) {
+            bucket.timestamp = timestamp;
+            bucket.count = in.getLong();
+            bucket.sum = in.getDouble();
+        }
+    };
+
+    private long timestamp;
+    private long count;
+    private double sum;
+
+    @Override
+    public long timestamp() {
+        return timestamp;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public double sum() {
+        return sum;
+    }
+
+    public double mean() {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    @Override
+    public void reset(DoubleValue value) {
+        timestamp = value.timestamp();
+        count = 1;
+        sum = value.value();
+    }
+
+    @Override
+    public void aggregate(DoubleValue value) {
+        count++;
+        sum += value.value();
+    }
+
+    @Override
+    public void clear(long timestamp) {
+        this.timestamp = timestamp;
+        count = 0;
+        sum = 0;
+    }
+
+    @Override
+    public void merge(DoubleSumBucket other) {
+        count += other.count;
+        sum += other.sum;
+    }
+
+    @Override
+    public String toString() {
+        return "DoubleSumBucket{ts=" + timestamp + ", count=" + count + ", sum=" + sum + '}';
+    }
+}
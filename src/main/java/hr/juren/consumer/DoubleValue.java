@@ -0,0 +1,4 @@
+package hr.juren.consumer;
+
+public record DoubleValue(long timestamp, double value) implements TimeStamped {
+}
@@ -0,0 +1,249 @@
+package hr.juren.consumer;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Append-only block of buckets compressed as in Facebook's Gorilla: timestamps as delta-of-deltas, every 64-bit
+ * word of the encoded bucket state XORed with the same word of the previous bucket, so a regular period costs one
+ * bit and an unchanged word one bit. One writer appends while readers decode what was published before they
+ * started.
+ */
+final class GorillaBlock {
+
+    private static final int INITIAL_WORDS = 16;
+
+    final long firstTimestamp;
+    private final int stateWords;
+    private volatile long[] bits;
+    private volatile int count; // buckets published to readers
+    private Encoder encoder; // null once sealed
+
+    // writer state, dropped when the block is sealed
+    private static final class Encoder {
+        final ByteBuffer state;
+        final long[] previous;
+        final int[] leading;
+        final int[] trailing;
+        int bitLength;
+        long previousTimestamp;
+        long previousDelta;
+
+        Encoder(int stateWords) {
+            this.state = ByteBuffer.allocate(stateWords * 8);
+            this.previous = new long[stateWords];
+            this.leading = new int[stateWords];
+            this.trailing = new int[stateWords];
+        }
+    }
+
+    GorillaBlock(long firstTimestamp, int stateBytes) {
+        this.firstTimestamp = firstTimestamp;
+        this.stateWords = (stateBytes + 7) / 8;
+        this.bits = new long[INITIAL_WORDS];
+        this.encoder = new Encoder(stateWords);
+    }
+
+    int count() {
+        return count;
+    }
+
+    /** Heap bytes of the compressed bits. */
+    long bytes() {
+        return bits.length * 8L;
+    }
+
+    <B> void append(B bucket, long timestamp, BucketCodec<? super B> codec) {
+        var e = encoder;
+        e.state.clear();
+        codec.encode(bucket, e.state);
+        // worst case: a 64 bit delta-of-delta and every word with a new window
+        ensure(e, 4 + 64 + stateWords * (2 + 5 + 6 + 64));
+
+        if (count == 0) {
+            write(e, timestamp, 64);
+        } else {
+            long delta = timestamp - e.previousTimestamp;
+            writeDeltaOfDelta(e, delta - e.previousDelta);
+            e.previousDelta = delta;
+        }
+        e.previousTimestamp = timestamp;
+
+        for (int w = 0; w < stateWords; w++) {
+            long word = e.state.getLong(w * 8);
+            long xor = word ^ e.previous[w];
+            e.previous[w] = word;
+            if (xor == 0) {
+                write(e, 0, 1);
+                continue;
+            }
+            int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+            int trailing = Long.numberOfTrailingZeros(xor);
+            if (count > 0 && leading >= e.leading[w] && trailing >= e.trailing[w]) {
+                // fits the previous word's window of meaningful bits
+                write(e, 0b10, 2);
+                write(e, xor >>> e.trailing[w], 64 - e.leading[w] - e.trailing[w]);
+            } else {
+                int length = 64 - leading - trailing;
+                write(e, 0b11, 2);
+                write(e, leading, 5);
+                write(e, length, 6); // 64 is written as 0
+                write(e, xor >>> trailing, length);
+                e.leading[w] = leading;
+                e.trailing[w] = trailing;
+            }
+        }
+        count++;
+    }
+
+    /** Trims the bits to their length and drops the writer state, nothing can be appended afterwards. */
+    void seal() {
+        bits = Arrays.copyOf(bits, (encoder.bitLength + 63) >>> 6);
+        encoder = null;
+    }
+
+    Decoder decoder() {
+        return new Decoder();
+    }
+
+    private void writeDeltaOfDelta(Encoder e, long dod) {
+        if (dod == 0) {
+            write(e, 0, 1);
+        } else if (dod >= -64 && dod < 64) {
+            write(e, 0b10, 2);
+            write(e, dod, 7);
+        } else if (dod >= -256 && dod < 256) {
+            write(e, 0b110, 3);
+            write(e, dod, 9);
+        } else if (dod >= -2048 && dod < 2048) {
+            write(e, 0b1110, 4);
+            write(e, dod, 12);
+        } else {
+            write(e, 0b1111, 4);
+            write(e, dod, 64);
+        }
+    }
+
+    private void ensure(Encoder e, int moreBits) {
+        int words = (e.bitLength + moreBits + 63) >>> 6;
+        if (words > bits.length)
+            bits = Arrays.copyOf(bits, Math.max(words, bits.length * 2));
+    }
+
+    // the low n bits of value, most significant first
+    private void write(Encoder e, long value, int n) {
+        if (n == 0)
+            return;
+        long[] b = bits;
+        int index = e.bitLength >>> 6;
+        int free = 64 - (e.bitLength & 63);
+        if (n < 64)
+            value &= (1L << n) - 1;
+        if (n <= free) {
+            b[index] |= value << (free - n);
+        } else {
+            b[index] |= value >>> (n - free);
+            b[index + 1] |= value << (64 - (n - free));
+        }
+        e.bitLength += n;
+    }
+
+    /**
+     * Decodes the buckets published when it was created, oldest first.
+     */
+    final class Decoder {
+
+        private final int limit = count;
+        private final long[] words = bits; // read after count, so it holds every bit of the published buckets
+        private final ByteBuffer state = ByteBuffer.allocate(stateWords * 8);
+        private final long[] previous = new long[stateWords];
+        private final int[] leading = new int[stateWords];
+        private final int[] trailing = new int[stateWords];
+        private int position;
+        private int decoded;
+        private long timestamp;
+        private long delta;
+
+        boolean hasNext() {
+            return decoded < limit;
+        }
+
+        /** Timestamp of the next bucket, without decoding it. */
+        long peekTimestamp() {
+            int mark = position;
+            long savedTimestamp = timestamp;
+            long savedDelta = delta;
+            long next = readTimestamp();
+            position = mark;
+            timestamp = savedTimestamp;
+            delta = savedDelta;
+            return next;
+        }
+
+        /** Skips the next bucket. */
+        void skip() {
+            readTimestamp();
+            readState();
+            decoded++;
+        }
+
+        <B> void next(B bucket, BucketCodec<? super B> codec) {
+            long ts = readTimestamp();
+            readState();
+            decoded++;
+            codec.decode(state.clear(), ts, bucket);
+        }
+
+        private long readTimestamp() {
+            if (decoded == 0) {
+                timestamp = read(64);
+                return timestamp;
+            }
+            long dod;
+            if (read(1) == 0)
+                dod = 0;
+            else if (read(1) == 0)
+                dod = signed(read(7), 7);
+            else if (read(1) == 0)
+                dod = signed(read(9), 9);
+            else if (read(1) == 0)
+                dod = signed(read(12), 12);
+            else
+                dod = read(64);
+            delta += dod;
+            timestamp += delta;
+            return timestamp;
+        }
+
+        private void readState() {
+            for (int w = 0; w < stateWords; w++) {
+                if (read(1) != 0) {
+                    if (read(1) != 0) {
+                        leading[w] = (int) read(5);
+                        int length = (int) read(6);
+                        trailing[w] = 64 - leading[w] - (length == 0 ? 64 : length);
+                    }
+                    previous[w] ^= read(64 - leading[w] - trailing[w]) << trailing[w];
+                }
+                state.putLong(w * 8, previous[w]);
+            }
+        }
+
+        private long read(int n) {
+            if (n == 0)
+                return 0;
+            int index = position >>> 6;
+            int offset = position & 63;
+            int free = 64 - offset;
+            long value = (words[index] << offset) >>> (64 - n);
+            if (n > free)
+                value |= words[index + 1] >>> (64 - (n - free));
+            position += n;
+            return value;
+        }
+
+        private static long signed(long value, int n) {
+            return (value << (64 - n)) >> (64 - n);
+        }
+    }
+}
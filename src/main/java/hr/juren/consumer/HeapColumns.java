@@ -0,0 +1,166 @@
+package hr.juren.consumer;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bucket columns living in shared slab arrays; a key owns {@code maxBuckets} consecutive entries of every column.
+ */
+final class HeapColumns implements BucketColumns {
+
+    private final long[] timestamps;
+    private final long[] counts;
+    private final double[] sums;
+    private final double[] mins;
+    private final double[] maxs;
+    private final int base;
+    private final Slab slab; // null for a range of its own
+
+    private HeapColumns(Chunk chunk, int base, Slab slab) {
+        this.timestamps = chunk.timestamps;
+        this.counts = chunk.counts;
+        this.sums = chunk.sums;
+        this.mins = chunk.mins;
+        this.maxs = chunk.maxs;
+        this.base = base;
+        this.slab = slab;
+    }
+
+    static HeapColumns allocate(int maxBuckets) {
+        return new HeapColumns(new Chunk(maxBuckets), 0, null);
+    }
+
+    @Override
+    public long timestamp(int slot) {
+        return timestamps[base + slot];
+    }
+
+    @Override
+    public long count(int slot) {
+        return counts[base + slot];
+    }
+
+    @Override
+    public double sum(int slot) {
+        return sums[base + slot];
+    }
+
+    @Override
+    public double min(int slot) {
+        return mins[base + slot];
+    }
+
+    @Override
+    public double max(int slot) {
+        return maxs[base + slot];
+    }
+
+    @Override
+    public void reset(int slot, long timestamp, double value) {
+        int i = base + slot;
+        counts[i] = 1;
+        sums[i] = value;
+        mins[i] = value;
+        maxs[i] = value;
+        timestamps[i] = timestamp;
+    }
+
+    @Override
+    public void aggregate(int slot, double value) {
+        int i = base + slot;
+        counts[i]++;
+        sums[i] += value;
+        if (value < mins[i]) mins[i] = value;
+        if (value > maxs[i]) maxs[i] = value;
+    }
+
+    @Override
+    public long count(int from, int to) {
+        return ColumnKernels.INSTANCE.sum(counts, base + from, base + to);
+    }
+
+    @Override
+    public double sum(int from, int to) {
+        return ColumnKernels.INSTANCE.sum(sums, base + from, base + to);
+    }
+
+    @Override
+    public double min(int from, int to) {
+        return ColumnKernels.INSTANCE.min(mins, base + from, base + to);
+    }
+
+    @Override
+    public double max(int from, int to) {
+        return ColumnKernels.INSTANCE.max(maxs, base + from, base + to);
+    }
+
+    @Override
+    public void release() {
+        if (slab != null)
+            slab.release(this);
+    }
+
+    /**
+     * Hands out column ranges from chunks of roughly {@link #CHUNK_BUCKETS} buckets, so a million keys cost
+     * a few hundred arrays instead of a bucket object per slot.
+     */
+    static final class Slab {
+
+        static final int CHUNK_BUCKETS = 1 << 20;
+
+        private final Lock lock = new ReentrantLock();
+        private final ArrayDeque<HeapColumns> released = new ArrayDeque<>();
+        private final int maxBuckets;
+        private final int keysPerChunk;
+        private Chunk chunk;
+        private int used;
+
+        Slab(int maxBuckets) {
+            this.maxBuckets = maxBuckets;
+            this.keysPerChunk = Math.max(1, CHUNK_BUCKETS / maxBuckets);
+        }
+
+        HeapColumns allocate() {
+            lock.lock();
+            try {
+                var columns = released.poll();
+                if (columns != null)
+                    return columns;
+                if (chunk == null || used == keysPerChunk) {
+                    chunk = new Chunk(keysPerChunk * maxBuckets);
+                    used = 0;
+                }
+                return new HeapColumns(chunk, used++ * maxBuckets, this);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // only ranges that were never written come back, they are still zeroed
+        void release(HeapColumns columns) {
+            lock.lock();
+            try {
+                released.push(columns);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static final class Chunk {
+        final long[] timestamps;
+        final long[] counts;
+        final double[] sums;
+        final double[] mins;
+        final double[] maxs;
+
+        Chunk(int buckets) {
+            this.timestamps = new long[buckets];
+            this.counts = new long[buckets];
+            this.sums = new double[buckets];
+            this.mins = new double[buckets];
+            this.maxs = new double[buckets];
+        }
+    }
+}
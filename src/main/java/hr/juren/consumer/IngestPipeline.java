@@ -0,0 +1,234 @@
+package hr.juren.consumer;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Many-producer front-end for an {@link AggregableRollingBuffer}, in the style of the LMAX Disruptor. Keys are
+ * partitioned by hash over {@code consumers} preallocated rings; a producer claims a slot of its key's ring with
+ * one CAS, fills it and marks it available, and the ring's consumer thread drains every available slot in one
+ * batch into the buffer. Each key is therefore written by a single thread and the buffer needs no concurrent
+ * writers.
+ * <p>
+ * Values of one key from different producers may reach the consumer out of timestamp order: a value the buffer
+ * rejects is counted in {@link #rejected()}, configure {@link BufferOptions#withAllowedLateness} to keep them.
+ */
+public final class IngestPipeline<K, B extends Bucket<V>, V extends TimeStamped> implements AutoCloseable {
+
+    /**
+     * What a consumer does while its ring is empty, and a producer while its ring is full.
+     */
+    public enum WaitStrategy {
+        /** Spins, lowest latency, burns a core per consumer. */
+        BUSY_SPIN,
+        /** Spins briefly, then yields the CPU to other threads. */
+        YIELDING,
+        /** Spins and yields briefly, then parks for 100 microseconds at a time. */
+        PARKING;
+
+        void idle(int attempts) {
+            if (this == BUSY_SPIN || attempts < 100) {
+                Thread.onSpinWait();
+            } else if (this == YIELDING || attempts < 200) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(100_000);
+            }
+        }
+    }
+
+    private final AggregableRollingBuffer<K, B, V> target;
+    private final Ring[] rings;
+    private final Thread[] consumers;
+    private final WaitStrategy waitStrategy;
+    private final LongAdder rejected = new LongAdder();
+    private volatile RuntimeException lastFailure;
+    private volatile boolean running = true;
+
+    /**
+     * @param ringSize slots per consumer, rounded up to a power of two
+     */
+    public IngestPipeline(AggregableRollingBuffer<K, B, V> target, int consumers, int ringSize, WaitStrategy waitStrategy) {
+        if (consumers < 1 || ringSize < 1)
+            throw new IllegalArgumentException("consumers >= 1 and ringSize >= 1 required");
+        this.target = Objects.requireNonNull(target);
+        this.waitStrategy = Objects.requireNonNull(waitStrategy);
+        int size = 1;
+        while (size < ringSize)
+            size <<= 1;
+        this.rings = new Ring[consumers];
+        this.consumers = new Thread[consumers];
+        for (int i = 0; i < consumers; i++) {
+            var ring = rings[i] = new Ring(size);
+            var thread = this.consumers[i] = new Thread(() -> consume(ring), "rolling-buffer-ingest-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Publishes a value, waiting with the wait strategy while the key's ring is full.
+     */
+    public void put(K key, V value) {
+        for (int attempts = 0; !offer(key, value); attempts++) {
+            if (!running)
+                throw new IllegalStateException("Ingest pipeline is closed");
+            waitStrategy.idle(attempts);
+        }
+    }
+
+    /**
+     * Publishes a value unless the key's ring is full or the pipeline is closed.
+     */
+    public boolean offer(K key, V value) {
+        Objects.requireNonNull(value);
+        if (!running)
+            return false;
+        return ringOf(key).offer(key, value);
+    }
+
+    /**
+     * Values the buffer did not take: rejected for arriving out of order without allowed lateness, or failed with any
+     * other exception while being applied (see {@link #lastFailure()}). The consumer goes on with the next value.
+     */
+    public long rejected() {
+        return rejected.sum();
+    }
+
+    /** The last exception other than an out-of-order rejection thrown while applying a value, null if none. */
+    public RuntimeException lastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * Stops accepting values, lets the consumers drain what was published and waits for them. A value offered
+     * concurrently with close may be lost. When interrupted, returns without waiting further with the interrupt
+     * flag set.
+     */
+    @Override
+    public void close() {
+        running = false;
+        for (var consumer : consumers) {
+            LockSupport.unpark(consumer);
+            try {
+                consumer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private Ring ringOf(K key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return rings[((h ^ (h >>> 16)) & Integer.MAX_VALUE) % rings.length];
+    }
+
+    @SuppressWarnings("unchecked")
+    private void consume(Ring ring) {
+        long next = ring.consumed;
+        for (int attempts = 0; ; ) {
+            if (!ring.available(next)) {
+                if (!running && next == ring.claimed)
+                    return;
+                waitStrategy.idle(attempts++);
+                continue;
+            }
+            attempts = 0;
+            // one batch: everything published in a row, the slots are handed back to producers once at the end
+            long end = next;
+            do {
+                int slot = (int) end & ring.mask;
+                K key = (K) ring.keys[slot];
+                V value = (V) ring.values[slot];
+                ring.keys[slot] = null;
+                ring.values[slot] = null;
+                try {
+                    target.put(key, value);
+                } catch (IllegalArgumentException e) {
+                    rejected.increment();
+                } catch (RuntimeException e) {
+                    // e.g. from a user bucket, a dead consumer would leave producers spinning on a full ring
+                    rejected.increment();
+                    lastFailure = e;
+                }
+                end++;
+            } while (end - next < ring.keys.length && ring.available(end));
+            ring.consumed = end;
+            next = end;
+        }
+    }
+
+    // producer and consumer sequences sit on cache lines of their own, see BSRollingBuffer
+    abstract static class RingLhsPadding {
+        long p00, p01, p02, p03, p04, p05, p06, p07, p08, p09, p10, p11, p12, p13, p14, p15;
+    }
+
+    abstract static class RingProducerFields extends RingLhsPadding {
+        volatile long claimed; // next sequence a producer claims
+    }
+
+    abstract static class RingMidPadding extends RingProducerFields {
+        long p16, p17, p18, p19, p20, p21, p22, p23, p24, p25, p26, p27, p28, p29, p30, p31;
+    }
+
+    abstract static class RingConsumerFields extends RingMidPadding {
+        volatile long consumed; // every sequence before it is free again, written by the consumer once per batch
+    }
+
+    abstract static class RingRhsPadding extends RingConsumerFields {
+        long p32, p33, p34, p35, p36, p37, p38, p39, p40, p41, p42, p43, p44, p45, p46, p47;
+    }
+
+    static final class Ring extends RingRhsPadding {
+
+        private static final VarHandle CLAIMED;
+        private static final VarHandle ROUND = MethodHandles.arrayElementVarHandle(int[].class);
+
+        static {
+            try {
+                CLAIMED = MethodHandles.lookup().findVarHandle(RingProducerFields.class, "claimed", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        final Object[] keys;
+        final Object[] values;
+        final int mask;
+        private final int shift;
+        // round (sequence / size) of the value last published in each slot, so the consumer needs no shared cursor
+        private final int[] rounds;
+
+        Ring(int size) {
+            this.keys = new Object[size];
+            this.values = new Object[size];
+            this.mask = size - 1;
+            this.shift = Integer.numberOfTrailingZeros(size);
+            this.rounds = new int[size];
+            Arrays.fill(rounds, -1);
+        }
+
+        boolean offer(Object key, Object value) {
+            long seq;
+            do {
+                seq = claimed;
+                if (seq - consumed >= keys.length)
+                    return false; // full
+            } while (!CLAIMED.compareAndSet(this, seq, seq + 1));
+            int slot = (int) seq & mask;
+            keys[slot] = key;
+            values[slot] = value;
+            ROUND.setRelease(rounds, slot, (int) (seq >>> shift));
+            return true;
+        }
+
+        boolean available(long seq) {
+            return (int) ROUND.getAcquire(rounds, (int) seq & mask) == (int) (seq >>> shift);
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package hr.juren.consumer;
+
+/**
+ * A key with the value of a window reduction over its buckets, see {@link AggregableRollingBuffer#topK}.
+ */
+public record KeyTotal<K>(K key, long total) {
+}
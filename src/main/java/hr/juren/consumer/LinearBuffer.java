@@ -5,21 +5,47 @@ import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.function.Supplier;
 
-public final class LinearBuffer<B extends Bucket<V>, V extends TimeStamped> {
+// superclass fields are laid out first: the fields written on every update get cache lines of their own
+abstract class LinearBufferLhsPadding {
+    long p00, p01, p02, p03, p04, p05, p06, p07, p08, p09, p10, p11, p12, p13, p14, p15;
+}
+
+abstract class LinearBufferHotFields extends LinearBufferLhsPadding {
+    volatile long lastTimestamp = 0L;
+    // timestamps of the bucket written last, [acceptFrom, acceptTo), and its slot; writer only
+    long acceptFrom = Long.MAX_VALUE;
+    long acceptTo = Long.MIN_VALUE;
+    int acceptIndex;
+}
+
+abstract class LinearBufferRhsPadding extends LinearBufferHotFields {
+    long p16, p17, p18, p19, p20, p21, p22, p23, p24, p25, p26, p27, p28, p29, p30, p31;
+}
+
+/**
+ * Single-key buffer addressed directly by period: the bucket of period {@code p} lives in slot
+ * {@code p mod maxBuckets}, so neither writes nor the iterator start search. Values may arrive in any order within
+ * the exposed window, older ones are ignored. Slots of skipped periods keep their stale bucket and are recognized
+ * by its timestamp. The multi-key buffers get the same addressing with {@link BufferOptions#directIndex()}.
+ */
+public final class LinearBuffer<B extends Bucket<V>, V extends TimeStamped> extends LinearBufferRhsPadding {
 
     private final int maxBuckets;
     private final int exposedBuckets;
     private final long periodMillis;
+    private final int periodShift; // log2(periodMillis) when it is a power of two, else -1
+    private final int slotMask; // maxBuckets - 1 when it is a power of two, else -1
     private final B[] buckets;
-    private volatile long lastTimestamp = 0L;
 
     @SuppressWarnings("unchecked")
-    LinearBuffer(int maxBuckets, int exposedBuckets, long periodMillis, Supplier<B> bucketSupplier) {
+    public LinearBuffer(int maxBuckets, int exposedBuckets, long periodMillis, Supplier<B> bucketSupplier) {
         if (exposedBuckets > maxBuckets)
             throw new IllegalArgumentException("exposedBuckets <= maxBuckets required");
         this.maxBuckets = maxBuckets;
         this.exposedBuckets = exposedBuckets;
         this.periodMillis = periodMillis;
+        this.periodShift = Long.bitCount(periodMillis) == 1 ? Long.numberOfTrailingZeros(periodMillis) : -1;
+        this.slotMask = Integer.bitCount(maxBuckets) == 1 ? maxBuckets - 1 : -1;
         this.buckets = (B[]) new Bucket[maxBuckets];
 
         Arrays.setAll(this.buckets, i -> bucketSupplier.get());
@@ -29,13 +55,22 @@ public final class LinearBuffer<B extends Bucket<V>, V extends TimeStamped> {
         long snapshotLastTs = lastTimestamp;
         long valueTs = value.timestamp();
 
+        // the period of the previous write, no period arithmetic; lastTimestamp only moves on writes, so it is
+        // still exposed
+        if (valueTs >= acceptFrom && valueTs < acceptTo) {
+            buckets[acceptIndex].aggregate(value);
+            if (valueTs > snapshotLastTs)
+                lastTimestamp = valueTs;
+            return;
+        }
+
         if (valueTs < snapshotLastTs - exposedBuckets * periodMillis) {
             // outdated value, ignore
             return;
         }
 
         long currentPeriod = periodOf(valueTs);
-        int idx = (int) Math.floorMod(currentPeriod, (long) maxBuckets);
+        int idx = slotOf(currentPeriod);
         B bucket = buckets[idx];
 
         long bucketPeriod = periodOf(bucket.timestamp());
@@ -44,6 +79,9 @@ public final class LinearBuffer<B extends Bucket<V>, V extends TimeStamped> {
         } else {
             bucket.aggregate(value); // same period
         }
+        acceptFrom = currentPeriod * periodMillis;
+        acceptTo = acceptFrom + periodMillis;
+        acceptIndex = idx;
 
         lastTimestamp = Math.max(snapshotLastTs, valueTs);
     }
@@ -52,8 +90,14 @@ public final class LinearBuffer<B extends Bucket<V>, V extends TimeStamped> {
         return new LinearBufferIterator(startTimestamp);
     }
 
+    // a mask is floorMod for a power of two, also for negative periods
+    private int slotOf(long period) {
+        return slotMask >= 0 ? (int) period & slotMask : (int) Math.floorMod(period, (long) maxBuckets);
+    }
+
+    // an arithmetic shift rounds towards negative infinity like floorDiv
     private long periodOf(long timestamp) {
-        return Math.floorDiv(timestamp, periodMillis);
+        return periodShift >= 0 ? timestamp >> periodShift : Math.floorDiv(timestamp, periodMillis);
     }
 
     private final class LinearBufferIterator implements Iterator<B> {
@@ -68,7 +112,7 @@ public final class LinearBuffer<B extends Bucket<V>, V extends TimeStamped> {
             long earliestPeriod = lastPeriod - (exposedBuckets - 1L);
             long startPeriod = Math.max(earliestPeriod, periodOf(startTimestamp));
 
-            this.idx = (int) Math.floorMod(startPeriod, (long) maxBuckets);
+            this.idx = slotOf(startPeriod);
             this.nextPeriod = startPeriod;
 
             advance();
@@ -83,7 +127,7 @@ public final class LinearBuffer<B extends Bucket<V>, V extends TimeStamped> {
                     next = candidate;
                     break;
                 }
-                idx = (idx + 1) % maxBuckets;
+                idx = idx + 1 == maxBuckets ? 0 : idx + 1;
                 nextPeriod++;
             }
         }
@@ -98,7 +142,7 @@ public final class LinearBuffer<B extends Bucket<V>, V extends TimeStamped> {
             if (next == null)
                 throw new NoSuchElementException();
             B result = next;
-            idx = (idx + 1) % maxBuckets;
+            idx = idx + 1 == maxBuckets ? 0 : idx + 1;
             nextPeriod++;
             advance();
             return result;
@@ -0,0 +1,6 @@
+package hr.juren.consumer;
+
+@FunctionalInterface
+public interface LongBucketReducer<B> {
+    long apply(long accumulator, B bucket);
+}
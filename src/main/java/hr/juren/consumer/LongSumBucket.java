@@ -0,0 +1,78 @@
+package hr.juren.consumer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Count and sum of {@link LongValue}s per period. The sum overflows silently like {@code long} arithmetic.
+ */
+public final class LongSumBucket implements MergeableBucket<LongSumBucket, LongValue> {
+
+    /** Snapshot codec, see {@link AggregableRollingBuffer#writeSnapshot}. */
+    public static final BucketCodec<LongSumBucket> CODEC = new BucketCodec<>() {
+        @Override
+        public int maxBytes() {
+            return 16;
+        }
+
+        @Override
+        public void encode(LongSumBucket bucket, ByteBuffer out) {
+            out.putLong(bucket.count);
+            out.putLong(bucket.sum);
+        }
+
+        @Override
+        public void decode(ByteBuffer in, long timestamp, LongSumBucket bucket) {
+            bucket.timestamp = timestamp;
+            bucket.count = in.getLong();
+            bucket.sum = in.getLong();
+        }
+    };
+
+    private long timestamp;
+    private long count;
+    private long sum;
+
+    @Override
+    public long timestamp() {
+        return timestamp;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public long sum() {
+        return sum;
+    }
+
+    @Override
+    public void reset(LongValue value) {
+        timestamp = value.timestamp();
+        count = 1;
+        sum = value.value();
+    }
+
+    @Override
+    public void aggregate(LongValue value) {
+        count++;
+        sum += value.value();
+    }
+
+    @Override
+    public void clear(long timestamp) {
+        this.timestamp = timestamp;
+        count = 0;
+        sum = 0;
+    }
+
+    @Override
+    public void merge(LongSumBucket other) {
+        count += other.count;
+        sum += other.sum;
+    }
+
+    @Override
+    public String toString() {
+        return "LongSumBucket{ts=" + timestamp + ", count=" + count + ", sum=" + sum + '}';
+    }
+}
@@ -0,0 +1,4 @@
+package hr.juren.consumer;
+
+public record LongValue(long timestamp, long value) implements TimeStamped {
+}
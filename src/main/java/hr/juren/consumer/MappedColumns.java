@@ -0,0 +1,176 @@
+package hr.juren.consumer;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Bucket columns backed by a memory-mapped file, one file per key. Layout (little endian):
+ * <pre>
+ * header  magic:int version:int maxBuckets:int writeIndex:int periodMillis:long lastTimestamp:long (padded to 64)
+ * columns timestamps:long[maxBuckets] counts:long[maxBuckets] sums, mins, maxs:double[maxBuckets]
+ * </pre>
+ * A bucket's timestamp is stored after its other fields and the header after the bucket, fenced, so after a process
+ * crash {@link #open} finds the newest complete bucket: the header's writeIndex, or the slot after it when the crash
+ * cut off the header update of a rollover but lastTimestamp already reached that slot; otherwise that slot is
+ * cleared. Values aggregated into the newest bucket are not atomic, a crash may keep part of the last update.
+ * Surviving an OS crash additionally needs {@link #flush()}.
+ */
+final class MappedColumns implements BucketColumns {
+
+    private static final int MAGIC = 0x524F4C42; // "ROLB"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int MAX_BUCKETS_OFFSET = 8;
+    private static final int WRITE_INDEX_OFFSET = 12;
+    private static final int PERIOD_OFFSET = 16;
+    private static final int LAST_TIMESTAMP_OFFSET = 24;
+
+    private final MappedByteBuffer map;
+    private final int timestamps;
+    private final int counts;
+    private final int sums;
+    private final int mins;
+    private final int maxs;
+
+    private MappedColumns(MappedByteBuffer map, int maxBuckets) {
+        this.map = map;
+        int column = maxBuckets * 8;
+        this.timestamps = HEADER_BYTES;
+        this.counts = timestamps + column;
+        this.sums = counts + column;
+        this.mins = sums + column;
+        this.maxs = mins + column;
+    }
+
+    static MappedColumns open(Path file, int maxBuckets, long periodMillis) throws IOException {
+        long size = HEADER_BYTES + maxBuckets * 40L;
+        if (size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("maxBuckets too large for a single mapping: " + maxBuckets);
+
+        try (var channel = FileChannel.open(file, CREATE, READ, WRITE)) {
+            long existing = channel.size();
+            if (existing != 0 && existing != size)
+                throw new IOException(file + " has " + existing + " bytes, expected " + size);
+
+            // the mapping stays valid after the channel is closed
+            var map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            if (existing == 0) {
+                map.putInt(VERSION_OFFSET, VERSION);
+                map.putInt(MAX_BUCKETS_OFFSET, maxBuckets);
+                map.putLong(PERIOD_OFFSET, periodMillis);
+                map.putInt(MAGIC_OFFSET, MAGIC);
+            } else {
+                if (map.getInt(MAGIC_OFFSET) != MAGIC || map.getInt(VERSION_OFFSET) != VERSION)
+                    throw new IOException(file + " is not a rolling buffer file");
+                if (map.getInt(MAX_BUCKETS_OFFSET) != maxBuckets || map.getLong(PERIOD_OFFSET) != periodMillis)
+                    throw new IOException(file + " was written with maxBuckets=" + map.getInt(MAX_BUCKETS_OFFSET)
+                            + ", periodMillis=" + map.getLong(PERIOD_OFFSET));
+                int writeIndex = map.getInt(WRITE_INDEX_OFFSET);
+                if (writeIndex < 0 || writeIndex >= maxBuckets)
+                    throw new IOException(file + " has corrupt writeIndex " + writeIndex);
+            }
+            var columns = new MappedColumns(map, maxBuckets);
+            if (existing != 0)
+                columns.recover(file, maxBuckets);
+            return columns;
+        }
+    }
+
+    // only the slot after writeIndex can be newer than the header, a rollover resets it before the commit
+    private void recover(Path file, int maxBuckets) throws IOException {
+        int writeIndex = map.getInt(WRITE_INDEX_OFFSET);
+        long lastTimestamp = map.getLong(LAST_TIMESTAMP_OFFSET);
+        long newest = timestamp(writeIndex);
+        if (lastTimestamp < newest)
+            throw new IOException(file + " has corrupt lastTimestamp " + lastTimestamp);
+        int next = writeIndex + 1 == maxBuckets ? 0 : writeIndex + 1;
+        long pending = timestamp(next);
+        if (pending <= newest)
+            return;
+        if (pending <= lastTimestamp) {
+            map.putInt(WRITE_INDEX_OFFSET, next);
+        } else {
+            int offset = next << 3;
+            map.putLong(timestamps + offset, 0);
+            map.putLong(counts + offset, 0);
+            map.putDouble(sums + offset, 0);
+            map.putDouble(mins + offset, 0);
+            map.putDouble(maxs + offset, 0);
+        }
+    }
+
+    @Override
+    public long timestamp(int slot) {
+        return map.getLong(timestamps + (slot << 3));
+    }
+
+    @Override
+    public long count(int slot) {
+        return map.getLong(counts + (slot << 3));
+    }
+
+    @Override
+    public double sum(int slot) {
+        return map.getDouble(sums + (slot << 3));
+    }
+
+    @Override
+    public double min(int slot) {
+        return map.getDouble(mins + (slot << 3));
+    }
+
+    @Override
+    public double max(int slot) {
+        return map.getDouble(maxs + (slot << 3));
+    }
+
+    @Override
+    public void reset(int slot, long timestamp, double value) {
+        int offset = slot << 3;
+        map.putLong(counts + offset, 1);
+        map.putDouble(sums + offset, value);
+        map.putDouble(mins + offset, value);
+        map.putDouble(maxs + offset, value);
+        VarHandle.releaseFence();
+        map.putLong(timestamps + offset, timestamp);
+    }
+
+    @Override
+    public void aggregate(int slot, double value) {
+        int offset = slot << 3;
+        map.putLong(counts + offset, map.getLong(counts + offset) + 1);
+        map.putDouble(sums + offset, map.getDouble(sums + offset) + value);
+        if (value < map.getDouble(mins + offset)) map.putDouble(mins + offset, value);
+        if (value > map.getDouble(maxs + offset)) map.putDouble(maxs + offset, value);
+    }
+
+    @Override
+    public int restoredWriteIndex() {
+        return map.getInt(WRITE_INDEX_OFFSET);
+    }
+
+    @Override
+    public void commit(int writeIndex, long lastTimestamp) {
+        VarHandle.releaseFence();
+        map.putLong(LAST_TIMESTAMP_OFFSET, lastTimestamp);
+        VarHandle.releaseFence();
+        map.putInt(WRITE_INDEX_OFFSET, writeIndex);
+    }
+
+    @Override
+    public void flush() {
+        map.force();
+    }
+}
@@ -0,0 +1,67 @@
+package hr.juren.consumer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Largest {@link DoubleValue} per period, {@code -Infinity} for an empty bucket.
+ */
+public final class MaxBucket implements MergeableBucket<MaxBucket, DoubleValue> {
+
+    /** Snapshot codec, see {@link AggregableRollingBuffer#writeSnapshot}. */
+    public static final BucketCodec<MaxBucket> CODEC = new BucketCodec<>() {
+        @Override
+        public int maxBytes() {
+            return 8;
+        }
+
+        @Override
+        public void encode(MaxBucket bucket, ByteBuffer out) {
+            out.putDouble(bucket.max);
+        }
+
+        @Override
+        public void decode(ByteBuffer in, long timestamp, MaxBucket bucket) {
+            bucket.timestamp = timestamp;
+            bucket.max = in.getDouble();
+        }
+    };
+
+    private long timestamp;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    @Override
+    public long timestamp() {
+        return timestamp;
+    }
+
+    public double max() {
+        return max;
+    }
+
+    @Override
+    public void reset(DoubleValue value) {
+        timestamp = value.timestamp();
+        max = value.value();
+    }
+
+    @Override
+    public void aggregate(DoubleValue value) {
+        max = Math.max(max, value.value());
+    }
+
+    @Override
+    public void clear(long timestamp) {
+        this.timestamp = timestamp;
+        max = Double.NEGATIVE_INFINITY;
+    }
+
+    @Override
+    public void merge(MaxBucket other) {
+        max = Math.max(max, other.max);
+    }
+
+    @Override
+    public String toString() {
+        return "MaxBucket{ts=" + timestamp + ", max=" + max + '}';
+    }
+}
@@ -0,0 +1,12 @@
+package hr.juren.consumer;
+
+/**
+ * A bucket whose state can be combined with another bucket of the same type, e.g. to roll fine buckets up into
+ * coarser ones. {@code clear} followed by {@code merge} must leave the same state as copying {@code other}.
+ */
+public interface MergeableBucket<B extends MergeableBucket<B, V>, V extends TimeStamped> extends Bucket<V> {
+
+    void clear(long timestamp); // empty bucket for the period starting at timestamp
+
+    void merge(B other);        // adds other's state, keeps this bucket's timestamp
+}
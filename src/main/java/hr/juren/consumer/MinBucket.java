@@ -0,0 +1,67 @@
+package hr.juren.consumer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Smallest {@link DoubleValue} per period, {@code +Infinity} for an empty bucket.
+ */
+public final class MinBucket implements MergeableBucket<MinBucket, DoubleValue> {
+
+    /** Snapshot codec, see {@link AggregableRollingBuffer#writeSnapshot}. */
+    public static final BucketCodec<MinBucket> CODEC = new BucketCodec<>() {
+        @Override
+        public int maxBytes() {
+            return 8;
+        }
+
+        @Override
+        public void encode(MinBucket bucket, ByteBuffer out) {
+            out.putDouble(bucket.min);
+        }
+
+        @Override
+        public void decode(ByteBuffer in, long timestamp, MinBucket bucket) {
+            bucket.timestamp = timestamp;
+            bucket.min = in.getDouble();
+        }
+    };
+
+    private long timestamp;
+    private double min = Double.POSITIVE_INFINITY;
+
+    @Override
+    public long timestamp() {
+        return timestamp;
+    }
+
+    public double min() {
+        return min;
+    }
+
+    @Override
+    public void reset(DoubleValue value) {
+        timestamp = value.timestamp();
+        min = value.value();
+    }
+
+    @Override
+    public void aggregate(DoubleValue value) {
+        min = Math.min(min, value.value());
+    }
+
+    @Override
+    public void clear(long timestamp) {
+        this.timestamp = timestamp;
+        min = Double.POSITIVE_INFINITY;
+    }
+
+    @Override
+    public void merge(MinBucket other) {
+        min = Math.min(min, other.min);
+    }
+
+    @Override
+    public String toString() {
+        return "MinBucket{ts=" + timestamp + ", min=" + min + '}';
+    }
+}
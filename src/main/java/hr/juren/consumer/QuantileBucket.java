@@ -0,0 +1,147 @@
+package hr.juren.consumer;
+
+import java.util.Arrays;
+
+/**
+ * Mergeable quantile sketch of {@link DoubleValue}s per period, for latency percentiles. A DDSketch: value
+ * {@code v > 0} is counted in bin {@code ceil(log(v) / log(gamma))} with {@code gamma = (1 + a) / (1 - a)}, so every
+ * returned quantile is within relative error {@code a} of an actual value of that rank.
+ * <p>
+ * The bins covering {@code [minValue, maxValue]} are allocated once, in the constructor; values outside the range
+ * are clamped into the first or last bin (and keep the exact min and max), zero and negative values share one
+ * counter. {@code reset} and {@code clear} only zero the bins used since the last reset.
+ */
+public final class QuantileBucket implements MergeableBucket<QuantileBucket, DoubleValue> {
+
+    private final double gamma;
+    private final double logGamma;
+    private final int offset; // bin index of minValue
+    private final long[] bins;
+
+    private long timestamp;
+    private long count;
+    private long zeroCount;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private int lowest; // non-empty bins are within [lowest, highest]
+    private int highest = -1;
+
+    /**
+     * 1% relative accuracy over {@code [0.001, 10^7]}, e.g. milliseconds from a microsecond to almost three hours
+     * (1152 bins).
+     */
+    public QuantileBucket() {
+        this(0.01, 1e-3, 1e7);
+    }
+
+    public QuantileBucket(double relativeAccuracy, double minValue, double maxValue) {
+        if (!(relativeAccuracy > 0 && relativeAccuracy < 1))
+            throw new IllegalArgumentException("0 < relativeAccuracy < 1 required");
+        if (!(minValue > 0 && maxValue > minValue))
+            throw new IllegalArgumentException("0 < minValue < maxValue required");
+        this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        this.logGamma = Math.log(gamma);
+        this.offset = (int) Math.ceil(Math.log(minValue) / logGamma);
+        int size = (int) Math.ceil(Math.log(maxValue) / logGamma) - offset + 1;
+        this.bins = new long[size];
+        this.lowest = size;
+    }
+
+    @Override
+    public long timestamp() {
+        return timestamp;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public double min() {
+        return min;
+    }
+
+    public double max() {
+        return max;
+    }
+
+    /**
+     * Value of rank {@code q * (count - 1)}, {@code NaN} for an empty bucket.
+     */
+    public double quantile(double q) {
+        if (q < 0 || q > 1)
+            throw new IllegalArgumentException("0 <= q <= 1 required");
+        if (count == 0)
+            return Double.NaN;
+        long rank = (long) (q * (count - 1));
+        if (rank < zeroCount)
+            return Math.max(min, Math.min(0, max));
+        long seen = zeroCount;
+        int bin = lowest;
+        for (; bin < highest; bin++) {
+            seen += bins[bin];
+            if (seen > rank)
+                break;
+        }
+        // midpoint of the bin in relative terms, clamped to what was actually seen
+        double value = 2 * Math.pow(gamma, bin + offset) / (1 + gamma);
+        return Math.max(min, Math.min(max, value));
+    }
+
+    @Override
+    public void reset(DoubleValue value) {
+        clear(value.timestamp());
+        aggregate(value);
+    }
+
+    @Override
+    public void aggregate(DoubleValue value) {
+        double v = value.value();
+        count++;
+        min = Math.min(min, v);
+        max = Math.max(max, v);
+        if (!(v > 0)) {
+            zeroCount++;
+            return;
+        }
+        int bin = (int) Math.ceil(Math.log(v) / logGamma) - offset;
+        bin = Math.max(0, Math.min(bins.length - 1, bin));
+        bins[bin]++;
+        lowest = Math.min(lowest, bin);
+        highest = Math.max(highest, bin);
+    }
+
+    @Override
+    public void clear(long timestamp) {
+        this.timestamp = timestamp;
+        if (highest >= lowest)
+            Arrays.fill(bins, lowest, highest + 1, 0);
+        count = 0;
+        zeroCount = 0;
+        min = Double.POSITIVE_INFINITY;
+        max = Double.NEGATIVE_INFINITY;
+        lowest = bins.length;
+        highest = -1;
+    }
+
+    @Override
+    public void merge(QuantileBucket other) {
+        if (other.bins.length != bins.length || other.gamma != gamma || other.offset != offset)
+            throw new IllegalArgumentException("Sketches have different accuracy or range");
+        for (int bin = other.lowest; bin <= other.highest; bin++)
+            bins[bin] += other.bins[bin];
+        if (other.highest >= other.lowest) {
+            lowest = Math.min(lowest, other.lowest);
+            highest = Math.max(highest, other.highest);
+        }
+        count += other.count;
+        zeroCount += other.zeroCount;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    @Override
+    public String toString() {
+        return "QuantileBucket{ts=" + timestamp + ", count=" + count + ", p50=" + quantile(0.5) +
+                ", p99=" + quantile(0.99) + ", max=" + max + '}';
+    }
+}
@@ -0,0 +1,184 @@
+package hr.juren.consumer;
+
+import hr.juren.consumer.BSRollingBuffer.BSBuffer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Binary snapshot of an {@link AggregableRollingBuffer}, big-endian:
+ * <pre>
+ * int magic "RBS1", int periodMillis
+ * per key:  int nameLength, UTF-8 name,
+ *           per bucket: varlong timestamp delta (unsigned LEB128, the first one from Long.MIN_VALUE), codec bytes
+ *           varlong 0
+ * int -1
+ * </pre>
+ * Buckets of a key are oldest first, so the deltas are positive and usually a multiple of the period that fits in
+ * one or two bytes. Both directions stream through one 64 KiB direct buffer, a bucket costs no allocation.
+ */
+final class SnapshotFormat {
+
+    static final int MAGIC = 0x52425331;
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final int MAX_VARLONG_BYTES = 10;
+
+    private SnapshotFormat() {
+    }
+
+    static final class Writer<K, B extends Bucket<V>, V extends TimeStamped> {
+
+        private final WritableByteChannel out;
+        private final BucketCodec<? super B> codec;
+        private final Function<? super K, String> keyName;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        private final Consumer<B> bucketWriter = this::writeBucket;
+        private long written;
+        private K key;
+        private boolean keyWritten;
+        private long previous;
+
+        Writer(WritableByteChannel out, BucketCodec<? super B> codec, Function<? super K, String> keyName, int periodMillis) {
+            if (codec.maxBytes() + MAX_VARLONG_BYTES > BUFFER_BYTES)
+                throw new IllegalArgumentException("Encoded buckets must fit in " + (BUFFER_BYTES - MAX_VARLONG_BYTES) + " bytes");
+            this.out = out;
+            this.codec = codec;
+            this.keyName = keyName;
+            buffer.putInt(MAGIC).putInt(periodMillis);
+        }
+
+        /**
+         * Writes the buckets of {@code source} in {@code [from, to)}, a key without any is left out.
+         */
+        void write(K key, BSBuffer<B, V> source, long from, long to) {
+            this.key = key;
+            this.keyWritten = false;
+            this.previous = Long.MIN_VALUE;
+            source.forEach(from, to, bucketWriter);
+            if (keyWritten) {
+                ensure(1);
+                buffer.put((byte) 0);
+            }
+        }
+
+        long finish() throws IOException {
+            if (buffer.remaining() < 4)
+                flush();
+            buffer.putInt(-1);
+            flush();
+            return written;
+        }
+
+        private void writeBucket(B bucket) {
+            if (!keyWritten) {
+                byte[] name = keyName.apply(key).getBytes(StandardCharsets.UTF_8);
+                if (name.length + 4 > BUFFER_BYTES)
+                    throw new IllegalArgumentException("Key name too long: " + name.length + " bytes");
+                ensure(4 + name.length);
+                buffer.putInt(name.length).put(name);
+                keyWritten = true;
+            }
+            long timestamp = bucket.timestamp();
+            ensure(MAX_VARLONG_BYTES + codec.maxBytes());
+            putVarLong(buffer, timestamp - previous);
+            previous = timestamp;
+            codec.encode(bucket, buffer);
+        }
+
+        private void ensure(int bytes) {
+            if (buffer.remaining() >= bytes)
+                return;
+            try {
+                flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining())
+                written += out.write(buffer);
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Restores every key of the snapshot in {@code in} into the buffer {@code bufferOf} returns for it.
+     */
+    static <K, B extends Bucket<V>, V extends TimeStamped> void read(ReadableByteChannel in, int periodMillis, BucketCodec<? super B> codec,
+                            Function<String, ? extends K> keyOf, Function<? super K, BSBuffer<B, V>> bufferOf,
+                            B scratch) throws IOException {
+        var buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).flip();
+        try {
+            fill(in, buffer, 8);
+            if (buffer.getInt() != MAGIC)
+                throw new IOException("Not a rolling buffer snapshot");
+            int snapshotPeriod = buffer.getInt();
+            if (snapshotPeriod != periodMillis)
+                throw new IOException("Snapshot was taken with periodMillis " + snapshotPeriod + ", not " + periodMillis);
+
+            for (; ; ) {
+                fill(in, buffer, 4);
+                int length = buffer.getInt();
+                if (length < 0)
+                    return;
+                if (length + 4 > BUFFER_BYTES)
+                    throw new IOException("Corrupt snapshot, key name of " + length + " bytes");
+                fill(in, buffer, length);
+                byte[] name = new byte[length];
+                buffer.get(name);
+                var target = bufferOf.apply(keyOf.apply(new String(name, StandardCharsets.UTF_8)));
+
+                long timestamp = Long.MIN_VALUE;
+                for (; ; ) {
+                    fill(in, buffer, MAX_VARLONG_BYTES + codec.maxBytes());
+                    long delta = getVarLong(buffer);
+                    if (delta == 0)
+                        break;
+                    timestamp += delta;
+                    target.restore(timestamp, codec, buffer, scratch);
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw new EOFException("Truncated snapshot");
+        }
+    }
+
+    // makes at least bytes readable unless the channel ends first
+    private static void fill(ReadableByteChannel in, ByteBuffer buffer, int bytes) throws IOException {
+        if (buffer.remaining() >= bytes)
+            return;
+        buffer.compact();
+        while (buffer.position() < bytes)
+            if (in.read(buffer) < 0)
+                break;
+        buffer.flip();
+    }
+
+    static void putVarLong(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) (value | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    static long getVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+    }
+}
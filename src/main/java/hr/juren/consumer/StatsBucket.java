@@ -0,0 +1,134 @@
+package hr.juren.consumer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Count, mean, variance, min and max of {@link DoubleValue}s per period. Mean and variance are kept with Welford's
+ * online update, which does not lose precision the way a running sum of squares does; {@code merge} combines two
+ * buckets with the parallel form of the same update (Chan et al.).
+ */
+public final class StatsBucket implements MergeableBucket<StatsBucket, DoubleValue> {
+
+    /** Snapshot codec, see {@link AggregableRollingBuffer#writeSnapshot}. */
+    public static final BucketCodec<StatsBucket> CODEC = new BucketCodec<>() {
+        @Override
+        public int maxBytes() {
+            return 40;
+        }
+
+        @Override
+        public void encode(StatsBucket bucket, ByteBuffer out) {
+            out.putLong(bucket.count);
+            out.putDouble(bucket.mean);
+            out.putDouble(bucket.m2);
+            out.putDouble(bucket.min);
+            out.putDouble(bucket.max);
+        }
+
+        @Override
+        public void decode(ByteBuffer in, long timestamp, StatsBucket bucket) {
+            bucket.timestamp = timestamp;
+            bucket.count = in.getLong();
+            bucket.mean = in.getDouble();
+            bucket.m2 = in.getDouble();
+            bucket.min = in.getDouble();
+            bucket.max = in.getDouble();
+        }
+    };
+
+    private long timestamp;
+    private long count;
+    private double mean;
+    private double m2; // sum of squared differences from the mean
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    @Override
+    public long timestamp() {
+        return timestamp;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public double mean() {
+        return mean;
+    }
+
+    public double sum() {
+        return mean * count;
+    }
+
+    public double min() {
+        return min;
+    }
+
+    public double max() {
+        return max;
+    }
+
+    // population variance, 0 for fewer than two values
+    public double variance() {
+        return count < 2 ? 0 : m2 / count;
+    }
+
+    public double sampleVariance() {
+        return count < 2 ? 0 : m2 / (count - 1);
+    }
+
+    public double stdDev() {
+        return Math.sqrt(variance());
+    }
+
+    @Override
+    public void reset(DoubleValue value) {
+        double v = value.value();
+        timestamp = value.timestamp();
+        count = 1;
+        mean = v;
+        m2 = 0;
+        min = v;
+        max = v;
+    }
+
+    @Override
+    public void aggregate(DoubleValue value) {
+        double v = value.value();
+        count++;
+        double delta = v - mean;
+        mean += delta / count;
+        m2 += delta * (v - mean);
+        min = Math.min(min, v);
+        max = Math.max(max, v);
+    }
+
+    @Override
+    public void clear(long timestamp) {
+        this.timestamp = timestamp;
+        count = 0;
+        mean = 0;
+        m2 = 0;
+        min = Double.POSITIVE_INFINITY;
+        max = Double.NEGATIVE_INFINITY;
+    }
+
+    @Override
+    public void merge(StatsBucket other) {
+        if (other.count == 0)
+            return;
+        long total = count + other.count;
+        double delta = other.mean - mean;
+        mean += delta * other.count / total;
+        m2 += other.m2 + delta * delta * ((double) count * other.count / total);
+        count = total;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    @Override
+    public String toString() {
+        return "StatsBucket{ts=" + timestamp + ", count=" + count + ", mean=" + mean + ", variance=" + variance() +
+                ", min=" + min + ", max=" + max + '}';
+    }
+}
@@ -0,0 +1,141 @@
+package hr.juren.consumer;
+
+import hr.juren.consumer.BSRollingBuffer.BSBuffer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Multi-key buffer for hot keys written by many threads. Every key has {@code shards} independent buffers and each
+ * writer thread sticks to one of them (assigned round-robin on its first put), so writers on the same key touch
+ * different buckets instead of contending on one. Reads merge the shards' buckets of the same period on the fly,
+ * over the {@code exposedBuckets} periods up to the newest one of any shard.
+ * <p>
+ * With more writer threads than shards a shard is shared, its writers then serialize as with
+ * {@link BufferOptions#concurrentWriters()}.
+ */
+public final class StripedRollingBuffer<K, B extends MergeableBucket<B, V>, V extends TimeStamped> {
+
+    private static final AtomicInteger NEXT_SHARD = new AtomicInteger();
+    private static final ThreadLocal<Integer> SHARD = ThreadLocal.withInitial(() -> NEXT_SHARD.getAndIncrement() & Integer.MAX_VALUE);
+
+    private final ConcurrentKeyTable<K, BSBuffer<B, V>[]> buffers = new ConcurrentKeyTable<>();
+    private final Supplier<B> bucketSupplier;
+    private final int maxBuckets;
+    private final int exposedBuckets;
+    private final int periodMillis;
+    private final int shards;
+    private final BufferOptions options;
+
+    public StripedRollingBuffer(Supplier<B> bucketSupplier, int maxBuckets, int exposedBuckets, int periodMillis, int shards) {
+        this(bucketSupplier, maxBuckets, exposedBuckets, periodMillis, shards, BufferOptions.DEFAULT);
+    }
+
+    public StripedRollingBuffer(Supplier<B> bucketSupplier, int maxBuckets, int exposedBuckets, int periodMillis,
+                                int shards, BufferOptions options) {
+        if (shards < 1)
+            throw new IllegalArgumentException("shards >= 1 required");
+        this.bucketSupplier = Objects.requireNonNull(bucketSupplier);
+        this.maxBuckets = maxBuckets;
+        this.exposedBuckets = exposedBuckets;
+        this.periodMillis = periodMillis;
+        this.shards = shards;
+        // a shard is shared once there are more writer threads than shards
+        this.options = options.withConcurrentWriters(true);
+    }
+
+    public void put(K key, V value) {
+        var stripes = buffers.get(key);
+        if (stripes == null)
+            stripes = buffers.computeIfAbsent(key, k -> newStripes());
+        stripes[SHARD.get() % shards].update(value);
+    }
+
+    /**
+     * Merged buckets starting at {@code startTimestamp}, oldest first; every returned bucket is a fresh copy.
+     */
+    public Iterator<B> iterator(K key, long startTimestamp) {
+        var stripes = buffers.get(key);
+        if (stripes == null) return Collections.emptyIterator();
+        List<B> merged = new ArrayList<>();
+        mergeWindow(stripes, startTimestamp, Long.MAX_VALUE, false, merged::add);
+        return merged.iterator();
+    }
+
+    /**
+     * Calls {@code action} with the merged bucket of every period in {@code [from, to)}, oldest first. The bucket
+     * is reused between calls and must not be kept.
+     */
+    public void forEach(K key, long from, long to, Consumer<? super B> action) {
+        var stripes = buffers.get(key);
+        if (stripes != null) mergeWindow(stripes, from, to, true, action);
+    }
+
+    public long reduceToLong(K key, long from, long to, long identity, LongBucketReducer<? super B> reducer) {
+        var stripes = buffers.get(key);
+        if (stripes == null) return identity;
+        long[] result = {identity};
+        mergeWindow(stripes, from, to, true, b -> result[0] = reducer.apply(result[0], b));
+        return result[0];
+    }
+
+    // k-way merge of the shards' (period ordered) buckets, one merged bucket per period
+    private void mergeWindow(BSBuffer<B, V>[] stripes, long from, long to, boolean reuse, Consumer<? super B> sink) {
+        // a quiet shard still exposes periods the busy ones evicted, the window ends at the newest period of any shard
+        long newest = Long.MIN_VALUE;
+        for (var stripe : stripes)
+            newest = Math.max(newest, stripe.openTimestamp());
+        if (newest == Long.MIN_VALUE)
+            return;
+        from = Math.max(from, (Math.floorDiv(newest, periodMillis) - exposedBuckets + 1) * periodMillis);
+
+        @SuppressWarnings("unchecked")
+        var cursors = (BSBuffer<B, V>.Cursor[]) new BSBuffer<?, ?>.Cursor[stripes.length];
+        for (int s = 0; s < stripes.length; s++)
+            cursors[s] = stripes[s].cursor(from);
+        B scratch = reuse ? bucketSupplier.get() : null;
+        for (; ; ) {
+            long period = Long.MAX_VALUE;
+            long timestamp = Long.MAX_VALUE;
+            for (var cursor : cursors) {
+                if (!cursor.hasNext())
+                    continue;
+                long ts = cursor.bucket().timestamp();
+                long p = Math.floorDiv(ts, periodMillis);
+                if (ts < to && (p < period || (p == period && ts < timestamp))) {
+                    period = p;
+                    timestamp = ts;
+                }
+            }
+            if (timestamp == Long.MAX_VALUE)
+                return;
+
+            B target = reuse ? scratch : bucketSupplier.get();
+            target.clear(timestamp);
+            for (var cursor : cursors) {
+                if (!cursor.hasNext())
+                    continue;
+                B head = cursor.bucket();
+                if (head.timestamp() < to && Math.floorDiv(head.timestamp(), periodMillis) == period) {
+                    target.merge(head);
+                    cursor.advance();
+                }
+            }
+            sink.accept(target);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private BSBuffer<B, V>[] newStripes() {
+        var stripes = (BSBuffer<B, V>[]) new BSBuffer<?, ?>[shards];
+        for (int s = 0; s < shards; s++)
+            stripes[s] = new BSBuffer<>(maxBuckets, exposedBuckets, periodMillis, bucketSupplier, options);
+        return stripes;
+    }
+}
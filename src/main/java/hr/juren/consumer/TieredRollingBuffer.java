@@ -0,0 +1,127 @@
+package hr.juren.consumer;
+
+import hr.juren.consumer.BSRollingBuffer.BSBuffer;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Keeps several resolutions per key while writing only to the finest one. A bucket evicted from a tier is merged
+ * into the next coarser tier, so every value lives in exactly one tier and the coarser tiers hold the history
+ * beyond the finer windows.
+ */
+public final class TieredRollingBuffer<K, B extends MergeableBucket<B, V>, V extends TimeStamped> {
+
+    /**
+     * @param buckets      buckets kept by the tier, all of them exposed
+     * @param periodMillis bucket length, a multiple of the next finer tier's period
+     */
+    public record Tier(int buckets, int periodMillis) {
+    }
+
+    private final ConcurrentKeyTable<K, BSBuffer<B, V>[]> buffers = new ConcurrentKeyTable<>();
+    private final Supplier<B> bucketSupplier;
+    private final Tier[] tiers;
+    private final BufferOptions options;
+
+    public TieredRollingBuffer(Supplier<B> bucketSupplier, Tier... tiers) {
+        this(bucketSupplier, BufferOptions.DEFAULT, tiers);
+    }
+
+    /**
+     * @param tiers finest first
+     */
+    public TieredRollingBuffer(Supplier<B> bucketSupplier, BufferOptions options, Tier... tiers) {
+        if (tiers.length == 0)
+            throw new IllegalArgumentException("at least one tier required");
+        for (int i = 1; i < tiers.length; i++) {
+            int finer = tiers[i - 1].periodMillis();
+            int coarser = tiers[i].periodMillis();
+            if (coarser <= finer || coarser % finer != 0)
+                throw new IllegalArgumentException("tier periods must be increasing multiples of each other: " + finer + ", " + coarser);
+        }
+        this.bucketSupplier = Objects.requireNonNull(bucketSupplier);
+        this.tiers = tiers.clone();
+        this.options = Objects.requireNonNull(options);
+    }
+
+    public void put(K key, V value) {
+        bufferFor(key)[0].update(value);
+    }
+
+    /**
+     * Buckets of all tiers starting at {@code startTimestamp}, coarsest tier first. A coarse bucket straddling the
+     * start of a finer window only holds the evicted part of its period, so no value is returned twice.
+     */
+    public Iterator<B> iterator(K key, long startTimestamp) {
+        var chain = buffers.get(key);
+        if (chain == null) return Collections.emptyIterator();
+
+        return new Iterator<>() {
+            int tier = chain.length - 1;
+            Iterator<B> current = chain[tier].iterator(startTimestamp);
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext()) {
+                    if (tier == 0)
+                        return false;
+                    current = chain[--tier].iterator(startTimestamp);
+                }
+                return true;
+            }
+
+            @Override
+            public B next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return current.next();
+            }
+        };
+    }
+
+    public Iterator<B> iterator(K key, int tier, long startTimestamp) {
+        Objects.checkIndex(tier, tiers.length);
+        var chain = buffers.get(key);
+        if (chain == null) return Collections.emptyIterator();
+        return chain[tier].iterator(startTimestamp);
+    }
+
+    public void forEach(K key, long from, long to, Consumer<? super B> action) {
+        var chain = buffers.get(key);
+        if (chain == null) return;
+        for (int tier = chain.length - 1; tier >= 0; tier--)
+            chain[tier].forEach(from, to, action);
+    }
+
+    private BSBuffer<B, V>[] bufferFor(K key) {
+        var chain = buffers.get(key);
+        if (chain == null)
+            chain = buffers.computeIfAbsent(key, k -> newChain());
+        return chain;
+    }
+
+    @SuppressWarnings("unchecked")
+    private BSBuffer<B, V>[] newChain() {
+        var chain = (BSBuffer<B, V>[]) new BSBuffer<?, ?>[tiers.length];
+        for (int i = tiers.length - 1; i >= 0; i--) {
+            var tier = tiers[i];
+            BucketListener<B> rollUp = null;
+            if (i < tiers.length - 1) {
+                var coarser = chain[i + 1];
+                rollUp = new BucketListener<>() {
+                    @Override
+                    public void onEvict(B bucket) {
+                        coarser.merge(bucket);
+                    }
+                };
+            }
+            chain[i] = new BSBuffer<>(tier.buckets(), tier.buckets(), tier.periodMillis(), bucketSupplier, options, null, rollUp);
+        }
+        return chain;
+    }
+}
@@ -0,0 +1,13 @@
+package hr.juren.consumer;
+
+/**
+ * Current time in epoch milliseconds, for stamping values and for the {@link TimingWheel}. Writers that stamp
+ * every value can use a {@link CoarseTimeSource} and read a cached field instead of the OS clock.
+ */
+@FunctionalInterface
+public interface TimeSource {
+
+    TimeSource SYSTEM = System::currentTimeMillis;
+
+    long millis();
+}
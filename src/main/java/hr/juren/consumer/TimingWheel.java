@@ -0,0 +1,154 @@
+package hr.juren.consumer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed timing wheel driven by a single daemon thread. A task lands in slot {@code (deadline / tick) % slots}
+ * and runs on the first tick at or after its deadline; the slot is revisited once per wheel revolution, so
+ * scheduling and expiry are O(1) however many tasks are registered. Tasks are scheduled from any thread through
+ * a lock-free queue that only the wheel thread drains.
+ */
+public final class TimingWheel implements AutoCloseable {
+
+    /**
+     * Runs on the wheel thread and returns its next deadline (epoch millis), or a negative value to stop. A task
+     * that throws is counted in {@link #failures()} and runs again on the next tick.
+     */
+    @FunctionalInterface
+    public interface Task {
+        long run(long nowMillis);
+    }
+
+    private static final class Shared {
+        static final TimingWheel INSTANCE = new TimingWheel(10, 512);
+    }
+
+    private final long tickMillis;
+    private final TimeSource clock;
+    private final List<Entry>[] slots;
+    private final int mask;
+    private final ConcurrentLinkedQueue<Entry> pending = new ConcurrentLinkedQueue<>();
+    private final Thread worker;
+    private final LongAdder failures = new LongAdder();
+    private volatile RuntimeException lastFailure;
+    private volatile boolean closed;
+
+    public TimingWheel(long tickMillis, int slots) {
+        this(tickMillis, slots, TimeSource.SYSTEM);
+    }
+
+    /**
+     * @param slots rounded up to a power of two
+     * @param clock time the deadlines are compared against; the wheel wakes up at least once per tick to read it
+     */
+    public TimingWheel(long tickMillis, int slots, TimeSource clock) {
+        if (tickMillis < 1 || slots < 1)
+            throw new IllegalArgumentException("tickMillis >= 1 and slots >= 1 required");
+        int size = 1;
+        while (size < slots)
+            size <<= 1;
+        this.tickMillis = tickMillis;
+        this.clock = clock;
+        @SuppressWarnings("unchecked")
+        var lists = (List<Entry>[]) new List<?>[size];
+        this.slots = lists;
+        for (int i = 0; i < size; i++)
+            this.slots[i] = new ArrayList<>();
+        this.mask = size - 1;
+        this.worker = new Thread(this::run, "rolling-buffer-wheel");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * The wheel shared by all buffers rotated by the clock, started on first use (10 ms ticks).
+     */
+    public static TimingWheel shared() {
+        return Shared.INSTANCE;
+    }
+
+    public long millis() {
+        return clock.millis();
+    }
+
+    public void schedule(Task task, long deadlineMillis) {
+        if (closed)
+            throw new IllegalStateException("Timing wheel is closed");
+        pending.add(new Entry(task, deadlineMillis));
+    }
+
+    /** Exceptions thrown by tasks; the tasks were not stopped by them. */
+    public long failures() {
+        return failures.sum();
+    }
+
+    /** The last exception thrown by a task, null if none. */
+    public RuntimeException lastFailure() {
+        return lastFailure;
+    }
+
+    // for tasks that recover from a failure themselves
+    void report(RuntimeException e) {
+        failures.increment();
+        lastFailure = e;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        worker.interrupt();
+    }
+
+    private void run() {
+        long tick = clock.millis() / tickMillis;
+        while (!closed) {
+            long wakeUp = (tick + 1) * tickMillis;
+            long now;
+            while ((now = clock.millis()) < wakeUp && !closed)
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(Math.min(wakeUp - now, tickMillis)));
+
+            for (Entry e; (e = pending.poll()) != null; )
+                place(e, tick);
+            // ticks skipped after a long pause still expire their slots
+            for (long nowTick = now / tickMillis; tick < nowTick && !closed; )
+                expire(slots[(int) (++tick & mask)], now, tick);
+        }
+    }
+
+    private void expire(List<Entry> slot, long now, long tick) {
+        for (int i = 0; i < slot.size(); ) {
+            Entry e = slot.get(i);
+            if (e.deadline > now) {
+                i++; // due in a later revolution
+                continue;
+            }
+            // swap-remove, the moved entry is examined next
+            slot.set(i, slot.get(slot.size() - 1));
+            slot.remove(slot.size() - 1);
+            long next;
+            try {
+                next = e.task.run(now);
+            } catch (RuntimeException ex) {
+                // a stopped rotation would leave its buffer serving a stale window
+                report(ex);
+                next = now; // overdue, runs on the next tick
+            }
+            if (next >= 0)
+                place(new Entry(e.task, next), tick);
+        }
+    }
+
+    private void place(Entry e, long tick) {
+        // first tick at or after the deadline, never the slot being expired: an overdue task runs on the next tick
+        long due = Math.max(-Math.floorDiv(-e.deadline, tickMillis), tick + 1);
+        slots[(int) (due & mask)].add(e);
+    }
+
+    private record Entry(Task task, long deadline) {
+    }
+}
@@ -0,0 +1,65 @@
+package hr.juren.consumer;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link ColumnKernels} on the widest vectors of the CPU: one accumulator vector over the range, a lane reduction
+ * at the end and a scalar tail. Sums add in a different order than the scalar loop, so the last bits of a
+ * {@code double} sum may differ.
+ */
+final class VectorKernels implements ColumnKernels {
+
+    private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public long sum(long[] column, int from, int to) {
+        var acc = LongVector.zero(LONGS);
+        int i = from;
+        for (int bound = from + LONGS.loopBound(to - from); i < bound; i += LONGS.length())
+            acc = acc.add(LongVector.fromArray(LONGS, column, i));
+        long sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < to; i++)
+            sum += column[i];
+        return sum;
+    }
+
+    @Override
+    public double sum(double[] column, int from, int to) {
+        var acc = DoubleVector.zero(DOUBLES);
+        int i = from;
+        for (int bound = from + DOUBLES.loopBound(to - from); i < bound; i += DOUBLES.length())
+            acc = acc.add(DoubleVector.fromArray(DOUBLES, column, i));
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < to; i++)
+            sum += column[i];
+        return sum;
+    }
+
+    @Override
+    public double min(double[] column, int from, int to) {
+        var acc = DoubleVector.broadcast(DOUBLES, Double.POSITIVE_INFINITY);
+        int i = from;
+        for (int bound = from + DOUBLES.loopBound(to - from); i < bound; i += DOUBLES.length())
+            acc = acc.min(DoubleVector.fromArray(DOUBLES, column, i));
+        double min = acc.reduceLanes(VectorOperators.MIN);
+        for (; i < to; i++)
+            min = Math.min(min, column[i]);
+        return min;
+    }
+
+    @Override
+    public double max(double[] column, int from, int to) {
+        var acc = DoubleVector.broadcast(DOUBLES, Double.NEGATIVE_INFINITY);
+        int i = from;
+        for (int bound = from + DOUBLES.loopBound(to - from); i < bound; i += DOUBLES.length())
+            acc = acc.max(DoubleVector.fromArray(DOUBLES, column, i));
+        double max = acc.reduceLanes(VectorOperators.MAX);
+        for (; i < to; i++)
+            max = Math.max(max, column[i]);
+        return max;
+    }
+}
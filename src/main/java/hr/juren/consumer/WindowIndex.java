@@ -0,0 +1,94 @@
+package hr.juren.consumer;
+
+import java.util.Arrays;
+import java.util.function.ToLongFunction;
+
+/**
+ * Index over the closed buckets of one circular buffer, for a single {@code long} metric.
+ * <p>
+ * {@code prefix[slot]} is the running total of the metric up to and including the bucket in {@code slot}, so the
+ * sum of any contiguous run of closed buckets is one subtraction. The slot before the oldest bucket still holds
+ * the total of the bucket that preceded it, because a slot's prefix is only rewritten when its new bucket closes.
+ * Min and max come from iterative segment trees with leaves at {@code [size, 2 * size)}.
+ */
+final class WindowIndex<B> {
+
+    private final ToLongFunction<? super B> metric;
+    private final int size;
+    private final long[] prefix;
+    private final long[] min;
+    private final long[] max;
+
+    WindowIndex(int size, ToLongFunction<? super B> metric) {
+        this.metric = metric;
+        this.size = size;
+        this.prefix = new long[size];
+        this.min = new long[size << 1];
+        this.max = new long[size << 1];
+        Arrays.fill(min, Long.MAX_VALUE);
+        Arrays.fill(max, Long.MIN_VALUE);
+    }
+
+    long metric(B bucket) {
+        return metric.applyAsLong(bucket);
+    }
+
+    // the bucket in slot will no longer receive values of its own period
+    void close(int slot, B bucket) {
+        long value = metric.applyAsLong(bucket);
+        prefix[slot] = prefix[slot == 0 ? size - 1 : slot - 1] + value;
+        set(slot, value);
+    }
+
+    // an already closed bucket changed; every closed slot up to (excluding) openSlot carries the delta
+    void refresh(int slot, B bucket, int openSlot) {
+        long value = metric.applyAsLong(bucket);
+        long delta = value - min[size + slot];
+        for (int i = slot; i != openSlot; i = i + 1 == size ? 0 : i + 1)
+            prefix[i] += delta;
+        set(slot, value);
+    }
+
+    // closed buckets in slots [first, first + count), wrapping around
+    long sum(int first, int count) {
+        int last = (first + count - 1) % size;
+        return prefix[last] - prefix[first == 0 ? size - 1 : first - 1];
+    }
+
+    long min(int first, int count) {
+        if (first + count <= size)
+            return query(min, first, first + count, true);
+        return Math.min(query(min, first, size, true), query(min, 0, first + count - size, true));
+    }
+
+    long max(int first, int count) {
+        if (first + count <= size)
+            return query(max, first, first + count, false);
+        return Math.max(query(max, first, size, false), query(max, 0, first + count - size, false));
+    }
+
+    private void set(int slot, long value) {
+        int i = slot + size;
+        min[i] = value;
+        max[i] = value;
+        for (i >>= 1; i >= 1; i >>= 1) {
+            min[i] = Math.min(min[i << 1], min[(i << 1) | 1]);
+            max[i] = Math.max(max[i << 1], max[(i << 1) | 1]);
+        }
+    }
+
+    private long query(long[] tree, int from, int to, boolean isMin) {
+        long result = isMin ? Long.MAX_VALUE : Long.MIN_VALUE;
+        for (int l = from + size, r = to + size; l < r; l >>= 1, r >>= 1) {
+            if ((l & 1) == 1) {
+                result = isMin ? Math.min(result, tree[l]) : Math.max(result, tree[l]);
+                l++;
+            }
+            if ((r & 1) == 1) {
+                r--;
+                result = isMin ? Math.min(result, tree[r]) : Math.max(result, tree[r]);
+            }
+        }
+        return result;
+    }
+}
@@ -107,6 +107,44 @@ public class AggregableRollingLinearBufferAggregationTest {
         assertThat(buckets.get(0).aggregates).isEqualTo(0);
     }
 
+    @Test
+    void putAllMatchesPerValuePuts() {
+        var batched = newBuffer();
+        var single = newBuffer();
+        var values = new TestValue[]{
+                new TestValue(1000, 1), new TestValue(1100, 2), new TestValue(1900, 3),
+                new TestValue(2000, 4),
+                new TestValue(4500, 5), new TestValue(4600, 6)
+        };
+
+        batched.putAll("A", values);
+        for (var value : values)
+            single.put("A", value);
+
+        var expected = collect(single.iterator("A", 0));
+        var actual = collect(batched.iterator("A", 0));
+        assertThat(actual).hasSize(3);
+        for (int i = 0; i < expected.size(); i++) {
+            assertThat(actual.get(i).ts).isEqualTo(expected.get(i).ts);
+            assertThat(actual.get(i).sum).isEqualTo(expected.get(i).sum);
+            assertThat(actual.get(i).resets).isEqualTo(expected.get(i).resets);
+            assertThat(actual.get(i).aggregates).isEqualTo(expected.get(i).aggregates);
+        }
+    }
+
+    @Test
+    void putAllKeepsValuesBeforeRejectedOne() {
+        var buffer = newBuffer();
+        var values = new TestValue[]{new TestValue(1000, 1), new TestValue(2000, 2), new TestValue(1500, 3)};
+
+        assertThatThrownBy(() -> buffer.putAll("A", values))
+                .hasMessage("Timestamps must be strictly increasing");
+
+        var buckets = collect(buffer.iterator("A", 0));
+        assertThat(buckets).hasSize(2);
+        assertThat(buckets.get(1).sum).isEqualTo(2);
+    }
+
     private static List<SummingBucket> collect(Iterator<SummingBucket> it) {
         var res = new ArrayList<SummingBucket>();
         while (it.hasNext()) res.add(it.next());
@@ -7,6 +7,11 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -108,6 +113,22 @@ class BSRollingBufferTest {
                 .hasMessageContaining("strictly increasing");
     }
 
+    @Test
+    void powerOfTwoPeriodShouldRoundNegativeTimestampsDown() {
+        var shifted = new BSRollingBuffer.BSBuffer<>(8, 8, 1024, bucketSupplier);
+        for (long ts : new long[]{-2000, -1025, -1024, 0, 1023, 1024})
+            shifted.update(new TestValue(ts, 1));
+
+        List<Long> timestamps = new ArrayList<>();
+        List<Integer> sums = new ArrayList<>();
+        shifted.iterator(Long.MIN_VALUE).forEachRemaining(b -> {
+            timestamps.add(b.timestamp());
+            sums.add(b.sum());
+        });
+        assertThat(timestamps).containsExactly(-2000L, -1024L, 0L, 1024L);
+        assertThat(sums).containsExactly(2, 1, 2, 1);
+    }
+
     // ------------------------------------------------------------------------
     // Tests for circular buffer behavior
     // ------------------------------------------------------------------------
@@ -177,6 +198,362 @@ class BSRollingBufferTest {
         assertThat(it.hasNext()).isFalse();
     }
 
+    // ------------------------------------------------------------------------
+    // Tests for range queries
+    // ------------------------------------------------------------------------
+
+    @Test
+    void reduceShouldFoldOnlyBucketsInsideHalfOpenRange() {
+        long ts = 0;
+        for (int i = 0; i < 5; i++) {
+            buffer.update(new TestValue(ts += 1000, i + 1));
+        }
+
+        // visible: 3000 -> 3, 4000 -> 4, 5000 -> 5
+        assertThat(buffer.reduce(0, Long.MAX_VALUE, 0, (acc, b) -> acc + b.sum())).isEqualTo(12);
+        assertThat(buffer.reduce(3500, 5000, 0, (acc, b) -> acc + b.sum())).isEqualTo(4);
+        assertThat(buffer.reduceToLong(4000, 5001, 0, (acc, b) -> acc + b.sum())).isEqualTo(9L);
+        assertThat(buffer.reduceToLong(6000, 7000, -1, (acc, b) -> acc + b.sum())).isEqualTo(-1L);
+    }
+
+    @Test
+    void forEachShouldVisitBucketsOldestFirst() {
+        long ts = 0;
+        for (int i = 0; i < 6; i++) {
+            buffer.update(new TestValue(ts += 1000, i + 1));
+        }
+
+        List<Long> timestamps = new ArrayList<>();
+        buffer.forEach(0, 6000, b -> timestamps.add(b.timestamp()));
+        assertThat(timestamps).containsExactly(4000L, 5000L);
+    }
+
+    @Test
+    void aggregableRollingBufferReduceShouldReturnIdentityForMissingKey() {
+        var agg = new AggregableRollingBuffer<String, TestBucket, TestValue>(bucketSupplier, 5, 3, 1000);
+        agg.put("A", new TestValue(1000, 5));
+
+        assertThat(agg.reduceToLong("A", 0, 2000, 0, (acc, b) -> acc + b.sum())).isEqualTo(5L);
+        assertThat(agg.reduceToLong("B", 0, 2000, 7, (acc, b) -> acc + b.sum())).isEqualTo(7L);
+    }
+
+    // ------------------------------------------------------------------------
+    // Tests for the window index
+    // ------------------------------------------------------------------------
+
+    @Test
+    void windowIndexShouldMatchLinearScanAcrossWrapAround() {
+        var indexed = new BSRollingBuffer.BSBuffer<>(16, 12, 1000, bucketSupplier, BufferOptions.DEFAULT, TestBucket::sum);
+        var random = new Random(42);
+        long ts = 0;
+        for (int step = 0; step < 200; step++) {
+            ts += 1000L * (1 + random.nextInt(3)); // sparse periods
+            indexed.update(new TestValue(ts, random.nextInt(200) - 100));
+            if (random.nextBoolean())
+                indexed.update(new TestValue(ts + 1, random.nextInt(200) - 100));
+
+            long from = ts - random.nextInt(40_000);
+            long to = from + random.nextInt(40_000);
+            assertThat(indexed.windowSum(from, to))
+                    .isEqualTo(indexed.reduceToLong(from, to, 0, (acc, b) -> acc + b.sum()));
+            assertThat(indexed.windowMin(from, to))
+                    .isEqualTo(indexed.reduceToLong(from, to, Long.MAX_VALUE, (acc, b) -> Math.min(acc, b.sum())));
+            assertThat(indexed.windowMax(from, to))
+                    .isEqualTo(indexed.reduceToLong(from, to, Long.MIN_VALUE, (acc, b) -> Math.max(acc, b.sum())));
+        }
+    }
+
+    @Test
+    void windowIndexShouldFollowLateValuesIntoClosedBuckets() {
+        var indexed = new BSRollingBuffer.BSBuffer<>(5, 5, 1000, bucketSupplier,
+                BufferOptions.DEFAULT.withConcurrentWriters(true), TestBucket::sum);
+        indexed.update(new TestValue(1000, 1));
+        indexed.update(new TestValue(2000, 2));
+        indexed.update(new TestValue(3000, 3));
+        indexed.update(new TestValue(1500, 10)); // lands in the closed 1000 bucket
+
+        assertThat(indexed.windowSum(0, 3000)).isEqualTo(13L);
+        assertThat(indexed.windowSum(2000, 4000)).isEqualTo(5L);
+        assertThat(indexed.windowMax(0, 3000)).isEqualTo(11L);
+    }
+
+    @Test
+    void windowQueriesShouldRequireIndexedMetric() {
+        buffer.update(new TestValue(1000, 1));
+        assertThatThrownBy(() -> buffer.windowSum(0, 2000))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    // ------------------------------------------------------------------------
+    // Tests for concurrent writers
+    // ------------------------------------------------------------------------
+
+    @Test
+    void concurrentWritersShouldNotLoseValues() throws Exception {
+        var concurrent = new BSRollingBuffer.BSBuffer<>(64, 64, 1000, bucketSupplier,
+                BufferOptions.DEFAULT.withConcurrentWriters(true));
+        var clock = new AtomicLong(1000);
+        int threads = 8;
+        int perThread = 5_000;
+
+        var executor = Executors.newFixedThreadPool(threads);
+        try {
+            var futures = new ArrayList<Future<?>>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < perThread; i++)
+                        concurrent.update(new TestValue(clock.getAndIncrement(), 1));
+                }));
+            }
+            for (var future : futures)
+                future.get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        long total = 0;
+        for (var it = concurrent.iterator(0); it.hasNext(); )
+            total += it.next().sum();
+        assertThat(total).isEqualTo((long) threads * perThread);
+    }
+
+    @Test
+    void concurrentWritersShouldAggregateValueRacingRolloverIntoPreviousBucket() {
+        var concurrent = new BSRollingBuffer.BSBuffer<>(5, 3, 1000, bucketSupplier,
+                BufferOptions.DEFAULT.withConcurrentWriters(true));
+        concurrent.update(new TestValue(1000, 1));
+        concurrent.update(new TestValue(2000, 2));
+        concurrent.update(new TestValue(1999, 4)); // lost the race against the rollover to 2000
+
+        List<Integer> sums = new ArrayList<>();
+        concurrent.iterator(0).forEachRemaining(b -> sums.add(b.sum()));
+        assertThat(sums).containsExactly(5, 2);
+
+        assertThatThrownBy(() -> concurrent.update(new TestValue(500, 1)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    // ------------------------------------------------------------------------
+    // Tests for direct index
+    // ------------------------------------------------------------------------
+
+    @Test
+    void directIndexShouldWriteEmptyBucketsForSkippedPeriods() {
+        var direct = new BSRollingBuffer.BSBuffer<LongSumBucket, LongValue>(8, 8, 1000, LongSumBucket::new,
+                BufferOptions.DEFAULT.withDirectIndex(true));
+        direct.update(new LongValue(1000, 1));
+        direct.update(new LongValue(1500, 2));
+        direct.update(new LongValue(3200, 3));
+        direct.update(new LongValue(3100, 4)); // any order within the open period
+        direct.update(new LongValue(6100, 5));
+
+        List<Long> timestamps = new ArrayList<>();
+        List<Long> sums = new ArrayList<>();
+        direct.iterator(2500).forEachRemaining(b -> {
+            timestamps.add(b.timestamp());
+            sums.add(b.sum());
+        });
+        assertThat(timestamps).containsExactly(3000L, 4000L, 5000L, 6000L);
+        assertThat(sums).containsExactly(7L, 0L, 0L, 5L);
+        assertThat(direct.reduceToLong(0, 4000, 0, (acc, b) -> acc + b.sum())).isEqualTo(10L);
+        assertThatThrownBy(() -> direct.update(new LongValue(5500, 1)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void directIndexShouldRequireMergeableBuckets() {
+        assertThatThrownBy(() -> new AggregableRollingBuffer<String, TestBucket, TestValue>(bucketSupplier, 5, 3, 1000,
+                BufferOptions.DEFAULT.withDirectIndex(true)).put("A", new TestValue(1000, 1)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void linearBufferShouldIterateAcrossWrapAroundWithMaskAndModulo() {
+        for (int maxBuckets : new int[]{4, 5}) {
+            var linear = new LinearBuffer<>(maxBuckets, maxBuckets, 1000, bucketSupplier);
+            for (long ts = -3000; ts <= 6000; ts += 1000)
+                linear.update(new TestValue(ts, (int) ts / 1000));
+
+            List<Long> timestamps = new ArrayList<>();
+            linear.iterator(Long.MIN_VALUE).forEachRemaining(b -> timestamps.add(b.timestamp()));
+            assertThat(timestamps).hasSize(maxBuckets);
+            assertThat(timestamps.get(maxBuckets - 1)).isEqualTo(6000L);
+            assertThat(timestamps.get(0)).isEqualTo(7000L - maxBuckets * 1000L);
+        }
+    }
+
+    @Test
+    void linearBufferShouldAggregateValuesReturningToAnEarlierPeriod() {
+        var linear = new LinearBuffer<>(4, 4, 1000, bucketSupplier);
+        for (long[] value : new long[][]{{1000, 1}, {1500, 2}, {2100, 4}, {1700, 8}, {1800, 16}, {2200, 32}})
+            linear.update(new TestValue(value[0], (int) value[1]));
+
+        List<Integer> sums = new ArrayList<>();
+        linear.iterator(Long.MIN_VALUE).forEachRemaining(b -> sums.add(b.sum()));
+        assertThat(sums).containsExactly(27, 36);
+    }
+
+    // ------------------------------------------------------------------------
+    // Tests for allowed lateness
+    // ------------------------------------------------------------------------
+
+    @Test
+    void lateValuesShouldLandInTheirOwnPeriod() {
+        var late = new BSRollingBuffer.BSBuffer<>(8, 8, 1000, bucketSupplier,
+                BufferOptions.DEFAULT.withAllowedLateness(3000));
+        late.update(new TestValue(1000, 1));
+        late.update(new TestValue(2000, 2));
+        late.update(new TestValue(3000, 3));
+        late.update(new TestValue(3000, 4)); // same millisecond
+        late.update(new TestValue(1500, 10)); // existing closed bucket
+        late.update(new TestValue(2500, 20));
+
+        List<Integer> sums = new ArrayList<>();
+        late.iterator(0).forEachRemaining(b -> sums.add(b.sum()));
+        assertThat(sums).containsExactly(11, 22, 7);
+        assertThat(late.dropped()).isZero();
+    }
+
+    @Test
+    void lateValueForMissingPeriodShouldInsertBucketInOrder() {
+        var late = new BSRollingBuffer.BSBuffer<>(6, 6, 1000, bucketSupplier,
+                BufferOptions.DEFAULT.withAllowedLateness(5000), TestBucket::sum);
+        late.update(new TestValue(1000, 1));
+        late.update(new TestValue(4000, 4));
+        late.update(new TestValue(6000, 6));
+        late.update(new TestValue(2000, 2)); // gap between 1000 and 4000
+        late.update(new TestValue(5000, 5)); // gap between 4000 and 6000
+
+        List<Long> timestamps = new ArrayList<>();
+        late.iterator(0).forEachRemaining(b -> timestamps.add(b.timestamp()));
+        assertThat(timestamps).containsExactly(1000L, 2000L, 4000L, 5000L, 6000L);
+        assertThat(late.windowSum(0, 6000)).isEqualTo(12L);
+        assertThat(late.windowMax(2000, 5000)).isEqualTo(4L);
+
+        late.update(new TestValue(7000, 7)); // rolls over, the open 6000 bucket gets indexed
+        assertThat(late.windowSum(0, 7000)).isEqualTo(18L);
+    }
+
+    @Test
+    void valuesBeyondAllowedLatenessShouldBeCountedAsDropped() {
+        var agg = new AggregableRollingBuffer<String, TestBucket, TestValue>(bucketSupplier, 10, 5, 1000,
+                BufferOptions.DEFAULT.withAllowedLateness(2000));
+        agg.put("A", new TestValue(10_000, 1));
+        agg.put("A", new TestValue(7_999, 1)); // more than 2s late
+        agg.put("A", new TestValue(8_000, 1));
+
+        assertThat(agg.dropped("A")).isEqualTo(1L);
+        assertThat(agg.dropped("B")).isZero();
+        assertThat(agg.reduceToLong("A", 0, 20_000, 0, (acc, b) -> acc + b.sum())).isEqualTo(2L);
+    }
+
+    @Test
+    void latenessShouldBeMeasuredFromTheNewestValueNotTheBucketStart() {
+        var agg = new AggregableRollingBuffer<String, TestBucket, TestValue>(bucketSupplier, 10, 5, 1000,
+                BufferOptions.DEFAULT.withAllowedLateness(100));
+        agg.put("A", new TestValue(3000, 1));
+        agg.put("A", new TestValue(3950, 1)); // newest value late in the open bucket's period
+        agg.put("A", new TestValue(2950, 1)); // only 50 ms before the bucket's first value, 1000 ms behind the newest
+        agg.put("A", new TestValue(3900, 1));
+
+        assertThat(agg.dropped("A")).isEqualTo(1L);
+        assertThat(agg.reduceToLong("A", 0, 20_000, 0, (acc, b) -> acc + b.sum())).isEqualTo(3L);
+    }
+
+    @Test
+    void clearShouldForgetTheNewestValueOfThePreviousKey() {
+        var late = new BSRollingBuffer.BSBuffer<>(8, 8, 1000, bucketSupplier,
+                BufferOptions.DEFAULT.withAllowedLateness(5000));
+        late.update(new TestValue(1_000_000, 1));
+        late.clear();
+        late.update(new TestValue(10_000, 1));
+        late.update(new TestValue(9_000, 1)); // 1 s late
+
+        assertThat(late.dropped()).isZero();
+    }
+
+    // ------------------------------------------------------------------------
+    // Tests for snapshot reads
+    // ------------------------------------------------------------------------
+
+    @Test
+    void snapshotReadsShouldNeverSeeHalfWrittenBuckets() throws Exception {
+        var snapshots = new BSRollingBuffer.BSBuffer<>(8, 8, 1000, bucketSupplier,
+                BufferOptions.DEFAULT.withSnapshotReads(true));
+        var executor = Executors.newSingleThreadExecutor();
+        try {
+            // every period gets a single value equal to its index, so sum == timestamp / 1000 in a consistent bucket
+            Future<?> writer = executor.submit(() -> {
+                for (long ts = 1000; ts <= 2_000_000_000L && !Thread.currentThread().isInterrupted(); ts += 1000)
+                    snapshots.update(new TestValue(ts, (int) (ts / 1000)));
+            });
+            for (int read = 0; read < 20_000; read++) {
+                for (long[] copy : snapshots.snapshot(0, Long.MAX_VALUE, b -> new long[]{b.timestamp(), b.sum()}))
+                    assertThat(copy[1]).isEqualTo(copy[0] / 1000);
+                long torn = snapshots.snapshotReduceToLong(0, Long.MAX_VALUE, 0,
+                        (acc, b) -> acc + (b.sum() == b.timestamp() / 1000 ? 0 : 1));
+                assertThat(torn).isZero();
+            }
+            writer.cancel(true);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void snapshotReadsShouldRequireOption() {
+        buffer.update(new TestValue(1000, 1));
+        assertThatThrownBy(() -> buffer.snapshotReduceToLong(0, 2000, 0, (acc, b) -> acc + b.sum()))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    // ------------------------------------------------------------------------
+    // Tests for idle key eviction
+    // ------------------------------------------------------------------------
+
+    @Test
+    void idleKeysShouldBeEvictedAndTheirBuffersReused() {
+        long second = TimeUnit.SECONDS.toNanos(1);
+        // no background sweeper, the test drives the sweeps
+        try (var agg = new AggregableRollingBuffer<String, TestBucket, TestValue>(bucketSupplier, 5, 3, 1000,
+                BufferOptions.DEFAULT.withIdleTtl(60_000).withBufferPooling(true), null, null)) {
+            agg.put("A", new TestValue(1000, 1));
+            agg.put("B", new TestValue(1000, 2));
+            long now = System.nanoTime();
+            agg.sweep(now);
+            agg.put("B", new TestValue(2000, 3));
+            agg.sweep(now + 61 * second);
+
+            assertThat(agg.iterator("A", 0).hasNext()).isFalse();
+            assertThat(agg.reduceToLong("B", 0, 3000, 0, (acc, b) -> acc + b.sum())).isEqualTo(5L);
+
+            // the next sweep pools A's buffer, a new key must not see its buckets
+            agg.sweep(now + 62 * second);
+            agg.put("C", new TestValue(500, 7));
+            List<Integer> sums = new ArrayList<>();
+            agg.iterator("C", 0).forEachRemaining(b -> sums.add(b.sum()));
+            assertThat(sums).containsExactly(7);
+        }
+    }
+
+    @Test
+    void maxKeysShouldEvictLeastRecentlyWrittenKey() {
+        try (var agg = new AggregableRollingBuffer<String, TestBucket, TestValue>(bucketSupplier, 5, 3, 1000,
+                BufferOptions.DEFAULT.withMaxKeys(2), null, null)) {
+            long now = System.nanoTime();
+            agg.put("A", new TestValue(1000, 1));
+            agg.sweep(now);
+            agg.put("B", new TestValue(1000, 1));
+            agg.sweep(now + 1);
+            agg.put("C", new TestValue(1000, 1));
+            agg.sweep(now + 2);
+
+            assertThat(agg.iterator("A", 0).hasNext()).isFalse();
+            assertThat(agg.iterator("B", 0).hasNext()).isTrue();
+            assertThat(agg.iterator("C", 0).hasNext()).isTrue();
+        }
+    }
+
     // ------------------------------------------------------------------------
     // Tests for AggregableRollingBuffer wrapper
     // ------------------------------------------------------------------------
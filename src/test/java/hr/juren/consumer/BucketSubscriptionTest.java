@@ -0,0 +1,96 @@
+package hr.juren.consumer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BucketSubscriptionTest {
+
+    record Sum(long timestamp, long sum) {}
+
+    static final class Recorder implements Flow.Subscriber<ClosedBucket<String, Sum>> {
+        final List<ClosedBucket<String, Sum>> received = new CopyOnWriteArrayList<>();
+        final CountDownLatch completed = new CountDownLatch(1);
+        final long initialRequest;
+        Flow.Subscription subscription;
+
+        Recorder(long initialRequest) {
+            this.initialRequest = initialRequest;
+        }
+
+        @Override public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (initialRequest > 0)
+                subscription.request(initialRequest);
+        }
+        @Override public void onNext(ClosedBucket<String, Sum> item) { received.add(item); }
+        @Override public void onError(Throwable throwable) { completed.countDown(); }
+        @Override public void onComplete() { completed.countDown(); }
+    }
+
+    @Test
+    void closedBucketsShouldBePushedOnceForMatchingKeys() throws Exception {
+        var buffer = new AggregableRollingBuffer<String, LongSumBucket, LongValue>(LongSumBucket::new, 4, 4, 1000);
+        var recorder = new Recorder(Long.MAX_VALUE);
+        var subscription = buffer.subscribe(k -> k.startsWith("api/"), b -> new Sum(b.timestamp(), b.sum()), 64, recorder);
+
+        for (long ts = 1000; ts < 11_000; ts += 500) {
+            buffer.put("api/orders", new LongValue(ts, 1));
+            buffer.put("db/orders", new LongValue(ts, 1));
+        }
+        subscription.close();
+
+        assertThat(recorder.completed.await(5, TimeUnit.SECONDS)).isTrue();
+        // ten periods were written, the open one is not closed yet; the ring only holds four buckets
+        assertThat(recorder.received).hasSize(9);
+        for (var closed : recorder.received) {
+            assertThat(closed.key()).isEqualTo("api/orders");
+            assertThat(closed.bucket().sum()).isEqualTo(2L);
+        }
+        assertThat(recorder.received.get(0).bucket().timestamp()).isEqualTo(1000L);
+        assertThat(recorder.received.get(8).bucket().timestamp()).isEqualTo(9000L);
+        assertThat(subscription.dropped()).isZero();
+    }
+
+    @Test
+    void bucketsOpenedForLatePeriodsShouldBePushed() throws Exception {
+        var buffer = new AggregableRollingBuffer<String, LongSumBucket, LongValue>(LongSumBucket::new, 8, 8, 1000,
+                BufferOptions.DEFAULT.withAllowedLateness(5000));
+        var recorder = new Recorder(Long.MAX_VALUE);
+        var subscription = buffer.subscribe(k -> true, b -> new Sum(b.timestamp(), b.sum()), 64, recorder);
+
+        buffer.put("api", new LongValue(1000, 1));
+        buffer.put("api", new LongValue(4000, 4));
+        buffer.put("api", new LongValue(2000, 2)); // no bucket for this period yet
+        buffer.put("api", new LongValue(5000, 5));
+        subscription.close();
+
+        assertThat(recorder.completed.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(recorder.received).hasSize(3);
+        long sum = 0;
+        for (var closed : recorder.received)
+            sum += closed.bucket().sum();
+        assertThat(sum).isEqualTo(7L);
+        assertThat(subscription.dropped()).isZero();
+    }
+
+    @Test
+    void slowSubscriberShouldLoseBucketsInsteadOfBlockingWriters() throws Exception {
+        var buffer = new AggregableRollingBuffer<String, LongSumBucket, LongValue>(LongSumBucket::new, 4, 4, 1000);
+        var stalled = new Recorder(0); // never requests anything
+        var subscription = buffer.subscribe(k -> true, b -> new Sum(b.timestamp(), b.sum()), 8, stalled);
+
+        for (long ts = 1000; ts <= 101_000; ts += 1000)
+            buffer.put("api", new LongValue(ts, 1));
+
+        assertThat(stalled.received).isEmpty();
+        assertThat(subscription.dropped()).isGreaterThanOrEqualTo(100L - 8 - 8); // buffer rounds up to a power of two
+        subscription.close();
+    }
+}
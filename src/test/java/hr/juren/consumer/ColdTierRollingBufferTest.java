@@ -0,0 +1,123 @@
+package hr.juren.consumer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ColdTierRollingBufferTest {
+
+    private static final int MINUTE = 60_000;
+
+    // one value per minute, minute m has the value m % 100
+    private static ColdTierRollingBuffer<String, LongSumBucket, LongValue> minutes(int count, int coldBuckets) {
+        var buffer = new ColdTierRollingBuffer<String, LongSumBucket, LongValue>(LongSumBucket::new, 10, MINUTE, coldBuckets, LongSumBucket.CODEC);
+        for (int m = 0; m < count; m++)
+            buffer.put("key", new LongValue((long) m * MINUTE, m % 100));
+        return buffer;
+    }
+
+    @Test
+    void iteratorShouldStreamColdThenHotBuckets() {
+        var buffer = minutes(2000, 500);
+        long cold = buffer.coldCount("key");
+        // whole blocks are dropped, at least 500 evicted buckets stay
+        assertThat(cold).isBetween(500L, 500L + 2 * ColdTierRollingBuffer.BLOCK_BUCKETS);
+
+        List<LongSumBucket> all = new ArrayList<>();
+        buffer.iterator("key", 0).forEachRemaining(all::add);
+        assertThat(all).hasSize((int) cold + 10);
+        long first = 2000 - all.size();
+        for (int i = 0; i < all.size(); i++) {
+            long minute = first + i;
+            assertThat(all.get(i).timestamp()).isEqualTo(minute * MINUTE);
+            assertThat(all.get(i).count()).isEqualTo(1);
+            assertThat(all.get(i).sum()).isEqualTo(minute % 100);
+        }
+
+        Iterator<LongSumBucket> fromMiddle = buffer.iterator("key", 1500L * MINUTE + 1);
+        assertThat(fromMiddle.next().timestamp()).isEqualTo(1501L * MINUTE);
+        assertThat(buffer.iterator("missing", 0).hasNext()).isFalse();
+    }
+
+    @Test
+    void iteratorShouldNotSkipBucketsEvictedWhileItRuns() {
+        var buffer = minutes(200, 500);
+        var it = buffer.iterator("key", 0);
+        assertThat(it.next().timestamp()).isEqualTo(0L);
+        // fills the open block and starts a new one the iterator has not seen
+        for (int m = 200; m < 300; m++)
+            buffer.put("key", new LongValue((long) m * MINUTE, m % 100));
+
+        long expected = 1;
+        while (it.hasNext())
+            assertThat(it.next().timestamp()).isEqualTo(expected++ * MINUTE);
+        assertThat(expected).isEqualTo(300L);
+    }
+
+    @Test
+    void forEachShouldDecodeOnlyTheRange() {
+        var buffer = minutes(2000, 500);
+        // crosses a block boundary and the cold/hot boundary
+        List<Long> sums = new ArrayList<>();
+        buffer.forEach("key", 1700L * MINUTE, 1995L * MINUTE, b -> sums.add(b.timestamp() / MINUTE * 1000 + b.sum()));
+        assertThat(sums).hasSize(295);
+        for (int i = 0; i < sums.size(); i++) {
+            long minute = 1700 + i;
+            assertThat(sums.get(i)).isEqualTo(minute * 1000 + minute % 100);
+        }
+    }
+
+    @Test
+    void regularBucketsShouldCompressToAFewBytes() {
+        var buffer = minutes(10_000, 43_200);
+        long cold = buffer.coldCount("key");
+        assertThat(cold).isEqualTo(10_000 - 10);
+        // a LongSumBucket is 24 bytes with its timestamp, the sum changes by a few bits every minute
+        assertThat((double) buffer.coldBytes("key") / cold).isLessThan(6.0);
+    }
+
+    @Test
+    void coldBucketsShouldRoundTripExactly() {
+        var random = new Random(42);
+        var buffer = new ColdTierRollingBuffer<String, StatsBucket, DoubleValue>(StatsBucket::new, 5, 1000, 10_000, StatsBucket.CODEC);
+        var reference = new AggregableRollingBuffer<String, StatsBucket, DoubleValue>(StatsBucket::new, 4000, 4000, 1000);
+        long ts = -5_000_000;
+        for (int i = 0; i < 3000; i++) {
+            // irregular gaps, sometimes days, exercise every delta-of-delta width
+            ts += random.nextInt(20) == 0 ? random.nextInt(1_000_000_000) : 1000L * (1 + random.nextInt(3)) + random.nextInt(1000);
+            int values = 1 + random.nextInt(4);
+            for (int v = 0; v < values; v++) {
+                var value = new DoubleValue(ts + v, random.nextGaussian() * 100);
+                buffer.put("key", value);
+                reference.put("key", value);
+            }
+            ts += values;
+        }
+
+        List<StatsBucket> expected = new ArrayList<>();
+        reference.iterator("key", Long.MIN_VALUE).forEachRemaining(expected::add);
+        List<StatsBucket> actual = new ArrayList<>();
+        buffer.iterator("key", Long.MIN_VALUE).forEachRemaining(actual::add);
+        assertThat(actual).hasSize(expected.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertThat(actual.get(i).timestamp()).isEqualTo(expected.get(i).timestamp());
+            assertThat(actual.get(i).count()).isEqualTo(expected.get(i).count());
+            assertThat(actual.get(i).mean()).isEqualTo(expected.get(i).mean());
+            assertThat(actual.get(i).variance()).isEqualTo(expected.get(i).variance());
+            assertThat(actual.get(i).min()).isEqualTo(expected.get(i).min());
+            assertThat(actual.get(i).max()).isEqualTo(expected.get(i).max());
+        }
+    }
+
+    @Test
+    void invalidSizesShouldBeRejected() {
+        assertThatThrownBy(() -> new ColdTierRollingBuffer<String, LongSumBucket, LongValue>(LongSumBucket::new, 0, 1000, 10, LongSumBucket.CODEC))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
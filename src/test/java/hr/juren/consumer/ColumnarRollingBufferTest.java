@@ -0,0 +1,214 @@
+package hr.juren.consumer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+class ColumnarRollingBufferTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void shouldAggregateCountSumMinMaxWithinPeriod() {
+        var buffer = new ColumnarBuffer(5, 3, 1000);
+        buffer.update(1000, 2.0);
+        buffer.update(1200, -1.0);
+        buffer.update(1800, 5.0);
+
+        var it = buffer.iterator(0);
+        var bucket = it.next();
+        assertThat(bucket.timestamp()).isEqualTo(1000L);
+        assertThat(bucket.count()).isEqualTo(3L);
+        assertThat(bucket.sum()).isEqualTo(6.0);
+        assertThat(bucket.min()).isEqualTo(-1.0);
+        assertThat(bucket.max()).isEqualTo(5.0);
+        assertThat(bucket.mean()).isEqualTo(2.0);
+        assertThat(it.hasNext()).isFalse();
+    }
+
+    @Test
+    void shouldRotateAndExposeOnlyExposedBuckets() {
+        var buffer = new ColumnarBuffer(5, 3, 1000);
+        long ts = 0;
+        for (int i = 0; i < 6; i++)
+            buffer.update(ts += 1000, i + 1);
+
+        List<Double> sums = new ArrayList<>();
+        buffer.iterator(0).forEachRemaining(b -> sums.add(b.sum()));
+        assertThat(sums).containsExactly(4.0, 5.0, 6.0);
+
+        List<Long> timestamps = new ArrayList<>();
+        buffer.iterator(5000).forEachRemaining(b -> timestamps.add(b.timestamp()));
+        assertThat(timestamps).containsExactly(5000L, 6000L);
+    }
+
+    @Test
+    void shouldRejectOutOfOrderTimestamps() {
+        var buffer = new ColumnarBuffer(5, 3, 1000);
+        buffer.update(1000, 1);
+        assertThatThrownBy(() -> buffer.update(500, 2))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("strictly increasing");
+    }
+
+    @Test
+    void keysShouldNotShareSlabSlots() {
+        var buffer = new ColumnarRollingBuffer<String>(4, 4, 1000);
+        for (int key = 0; key < 1000; key++) {
+            buffer.put("k" + key, 1000, key);
+            buffer.put("k" + key, 2000, key * 2);
+        }
+
+        for (int key = 0; key < 1000; key++) {
+            List<Double> sums = new ArrayList<>();
+            buffer.iterator("k" + key, 0).forEachRemaining(b -> sums.add(b.sum()));
+            assertThat(sums).containsExactly((double) key, (double) key * 2);
+        }
+    }
+
+    @Test
+    void bucketViewShouldWriteThroughToColumns() {
+        var buffer = new ColumnarRollingBuffer<String>(4, 4, 1000);
+        buffer.put("A", new DoubleValue(1000, 1));
+
+        buffer.iterator("A", 0).next().aggregate(new DoubleValue(1100, 3));
+
+        var bucket = buffer.iterator("A", 0).next();
+        assertThat(bucket.count()).isEqualTo(2L);
+        assertThat(bucket.max()).isEqualTo(3.0);
+    }
+
+    @Test
+    void shouldReturnEmptyIteratorForMissingKey() {
+        var buffer = new ColumnarRollingBuffer<String>(4, 4, 1000);
+        assertThat(buffer.iterator("missing", 0)).isSameAs(Collections.emptyIterator());
+    }
+
+    @Test
+    void persistentBufferShouldRestoreWindowAfterReopen() throws IOException {
+        var buffer = ColumnarRollingBuffer.<String>open(dir, 5, 3, 1000, k -> k, k -> k);
+        long ts = 0;
+        for (int i = 0; i < 6; i++) {
+            buffer.put("A", ts += 1000, i + 1);
+            buffer.put("B", ts, 10);
+        }
+        buffer.put("A", ts + 500, 1);
+        buffer.flush();
+
+        var reopened = ColumnarRollingBuffer.<String>open(dir, 5, 3, 1000, k -> k, k -> k);
+        List<Double> sums = new ArrayList<>();
+        reopened.iterator("A", 0).forEachRemaining(b -> sums.add(b.sum()));
+        assertThat(sums).containsExactly(4.0, 5.0, 7.0);
+        assertThat(reopened.iterator("B", 0)).toIterable().hasSize(3);
+
+        // writing continues where the previous process stopped
+        reopened.put("A", 7000, 2);
+        List<Long> timestamps = new ArrayList<>();
+        reopened.iterator("A", 0).forEachRemaining(b -> timestamps.add(b.timestamp()));
+        assertThat(timestamps).containsExactly(5000L, 6000L, 7000L);
+        assertThatThrownBy(() -> reopened.put("A", 6999, 1))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void reopenShouldDropARolloverTheCrashCutOff() throws IOException {
+        Path file = dir.resolve("A" + ColumnarRollingBuffer.FILE_SUFFIX);
+        var columns = MappedColumns.open(file, 5, 1000);
+        columns.reset(0, 1000, 1);
+        columns.commit(0, 1000);
+        columns.reset(1, 2000, 2); // crashed before the commit
+
+        var reopened = ColumnarRollingBuffer.<String>open(dir, 5, 3, 1000, k -> k, k -> k);
+        assertThat(reopened.windowCount("A", 0, Long.MAX_VALUE)).isEqualTo(1);
+        reopened.put("A", 2500, 3);
+        assertThat(reopened.windowSum("A", 0, Long.MAX_VALUE)).isEqualTo(4.0);
+    }
+
+    @Test
+    void reopenShouldKeepARolloverWhoseTimestampWasCommitted() throws IOException {
+        Path file = dir.resolve("A" + ColumnarRollingBuffer.FILE_SUFFIX);
+        var columns = MappedColumns.open(file, 5, 1000);
+        columns.reset(0, 1000, 1);
+        columns.commit(0, 1000);
+        columns.reset(1, 2000, 2);
+        columns.commit(0, 2000); // crashed between lastTimestamp and writeIndex
+
+        var reopened = ColumnarRollingBuffer.<String>open(dir, 5, 3, 1000, k -> k, k -> k);
+        List<Long> timestamps = new ArrayList<>();
+        reopened.iterator("A", 0).forEachRemaining(b -> timestamps.add(b.timestamp()));
+        assertThat(timestamps).containsExactly(1000L, 2000L);
+        assertThatThrownBy(() -> reopened.put("A", 1500, 1))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void persistentBufferShouldRejectFileWithDifferentGeometry() throws IOException {
+        ColumnarRollingBuffer.<String>open(dir, 5, 3, 1000, k -> k, k -> k).put("A", 1000, 1);
+
+        assertThatThrownBy(() -> ColumnarRollingBuffer.<String>open(dir, 8, 3, 1000, k -> k, k -> k))
+                .isInstanceOf(IOException.class);
+        assertThat(Files.exists(dir.resolve("A" + ColumnarRollingBuffer.FILE_SUFFIX))).isTrue();
+    }
+
+    @Test
+    void windowReductionsShouldMatchIterationAcrossWrapAround() {
+        var buffer = new ColumnarBuffer(100, 90, 1000);
+        Random random = new Random(3);
+        long ts = 0;
+        for (int i = 0; i < 1000; i++) // wraps the ring ten times, values a few per bucket
+            buffer.update(ts += 1 + random.nextInt(400), random.nextGaussian() * 100);
+
+        for (long[] range : new long[][]{{0, Long.MAX_VALUE}, {ts - 40_000, ts - 10_000}, {ts - 3_000, ts + 1}, {ts + 1, ts + 2}}) {
+            long count = 0;
+            double sum = 0, min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+            for (var it = buffer.iterator(range[0]); it.hasNext(); ) {
+                var b = it.next();
+                if (b.timestamp() >= range[1]) break;
+                count += b.count();
+                sum += b.sum();
+                min = Math.min(min, b.min());
+                max = Math.max(max, b.max());
+            }
+            assertThat(buffer.windowCount(range[0], range[1])).isEqualTo(count);
+            assertThat(buffer.windowSum(range[0], range[1])).isCloseTo(sum, within(1e-6));
+            assertThat(buffer.windowMin(range[0], range[1])).isEqualTo(min);
+            assertThat(buffer.windowMax(range[0], range[1])).isEqualTo(max);
+        }
+    }
+
+    @Test
+    void kernelsShouldMatchScalarLoops() {
+        // the test task adds jdk.incubator.vector, a kernel that fails to load would compare the loops to themselves
+        assertThat(ColumnKernels.INSTANCE).isInstanceOf(VectorKernels.class);
+        Random random = new Random(5);
+        double[] doubles = random.doubles(1037).toArray();
+        long[] longs = random.longs(1037, 0, 1000).toArray();
+        var scalar = new ColumnKernels.Scalar();
+        for (int[] range : new int[][]{{0, 1037}, {3, 3}, {5, 12}, {100, 1031}}) {
+            int from = range[0], to = range[1];
+            assertThat(ColumnKernels.INSTANCE.sum(longs, from, to)).isEqualTo(scalar.sum(longs, from, to));
+            assertThat(ColumnKernels.INSTANCE.sum(doubles, from, to)).isCloseTo(scalar.sum(doubles, from, to), within(1e-9));
+            assertThat(ColumnKernels.INSTANCE.min(doubles, from, to)).isEqualTo(scalar.min(doubles, from, to));
+            assertThat(ColumnKernels.INSTANCE.max(doubles, from, to)).isEqualTo(scalar.max(doubles, from, to));
+        }
+    }
+
+    @Test
+    void windowQueriesShouldReturnIdentityForMissingKey() {
+        var buffer = new ColumnarRollingBuffer<String>(8, 8, 1000);
+        assertThat(buffer.windowCount("missing", 0, Long.MAX_VALUE)).isZero();
+        assertThat(buffer.windowMin("missing", 0, Long.MAX_VALUE)).isEqualTo(Double.POSITIVE_INFINITY);
+    }
+}
@@ -0,0 +1,130 @@
+package hr.juren.consumer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConcurrentKeyTableTest {
+
+    @Test
+    void shouldReturnNullForMissingKey() {
+        var table = new ConcurrentKeyTable<String, Integer>();
+        assertThat(table.get("missing")).isNull();
+    }
+
+    @Test
+    void shouldCreateValueOnlyOnceForExistingKey() {
+        var table = new ConcurrentKeyTable<String, Integer>();
+        var calls = new AtomicInteger();
+
+        assertThat(table.computeIfAbsent("A", k -> calls.incrementAndGet())).isEqualTo(1);
+        assertThat(table.computeIfAbsent("A", k -> calls.incrementAndGet())).isEqualTo(1);
+        assertThat(table.get("A")).isEqualTo(1);
+        assertThat(calls.get()).isEqualTo(1);
+    }
+
+    @Test
+    void valueOfTheLosingFactoryShouldBeDiscarded() {
+        var table = new ConcurrentKeyTable<String, Integer>();
+        List<Integer> discarded = new ArrayList<>();
+
+        // the factory itself inserts the key first, as a thread winning the race would
+        int value = table.computeIfAbsent("A", k -> {
+            table.computeIfAbsent("A", k2 -> 1);
+            return 2;
+        }, discarded::add);
+        assertThat(value).isEqualTo(1);
+        assertThat(table.get("A")).isEqualTo(1);
+        assertThat(discarded).containsExactly(2);
+
+        table.computeIfAbsent("A", k -> 3, discarded::add);
+        assertThat(discarded).containsExactly(2); // the factory did not run
+    }
+
+    @Test
+    void shouldKeepAllKeysAcrossResizes() {
+        var table = new ConcurrentKeyTable<Integer, Integer>();
+        for (int i = 0; i < 10_000; i++)
+            table.computeIfAbsent(i, k -> k * 2);
+
+        for (int i = 0; i < 10_000; i++)
+            assertThat(table.get(i)).isEqualTo(i * 2);
+        assertThat(table.size()).isEqualTo(10_000);
+
+        var seen = new HashMap<Integer, Integer>();
+        table.forEach(seen::put);
+        assertThat(seen).hasSize(10_000);
+    }
+
+    @Test
+    void removedKeysShouldDisappearAndBeReinsertable() {
+        var table = new ConcurrentKeyTable<Integer, Integer>();
+        for (int i = 0; i < 1_000; i++)
+            table.computeIfAbsent(i, k -> k);
+
+        assertThat(table.remove(7, 8)).isFalse(); // mapped to another value
+        for (int i = 0; i < 1_000; i += 2)
+            assertThat(table.remove(i, i)).isTrue();
+        assertThat(table.remove(0, 0)).isFalse();
+        assertThat(table.size()).isEqualTo(500);
+        assertThat(table.get(0)).isNull();
+        assertThat(table.get(1)).isEqualTo(1);
+
+        // inserts pass over tombstones and eventually rebuild the table without them
+        for (int i = 0; i < 10_000; i++)
+            table.computeIfAbsent(i, k -> -k);
+        assertThat(table.size()).isEqualTo(10_000);
+        assertThat(table.get(0)).isEqualTo(0);
+        assertThat(table.get(2)).isEqualTo(-2);
+        assertThat(table.get(3)).isEqualTo(3);
+    }
+
+    @Test
+    void concurrentInsertsShouldAgreeOnSingleValuePerKey() throws Exception {
+        int threads = 8;
+        int keys = 50_000;
+        var table = new ConcurrentKeyTable<Integer, Object>();
+        var start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            var results = new Future<?>[threads];
+            @SuppressWarnings("unchecked")
+            Map<Integer, Object>[] observed = new Map[threads];
+            for (int t = 0; t < threads; t++) {
+                int id = t;
+                observed[id] = new HashMap<>();
+                results[t] = executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < keys; i++) {
+                        int key = (i * 31 + id) % keys;
+                        observed[id].put(key, table.computeIfAbsent(key, k -> new Object()));
+                    }
+                    return null;
+                });
+            }
+            start.countDown();
+            for (var result : results)
+                result.get(30, TimeUnit.SECONDS);
+
+            assertThat(table.size()).isEqualTo(keys);
+            for (int key = 0; key < keys; key++) {
+                Object value = table.get(key);
+                for (var seen : observed)
+                    assertThat(seen.get(key)).isSameAs(value);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
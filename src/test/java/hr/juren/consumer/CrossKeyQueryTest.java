@@ -0,0 +1,64 @@
+package hr.juren.consumer;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CrossKeyQueryTest {
+
+    private static final int KEYS = 5000; // enough slots to split the scan into many fork-join tasks
+
+    private AggregableRollingBuffer<String, LongSumBucket, LongValue> buffer;
+
+    // key "svc<k % 10>/<k>" gets errors k in the period starting at 1000 and 1 in each of the four later ones
+    @BeforeEach
+    void setup() {
+        buffer = new AggregableRollingBuffer<>(LongSumBucket::new, 10, 10, 1000);
+        for (int k = 0; k < KEYS; k++) {
+            String key = "svc" + (k % 10) + "/" + k;
+            buffer.put(key, new LongValue(1000, k));
+            for (int second = 2; second <= 5; second++)
+                buffer.put(key, new LongValue(second * 1000L, 1));
+        }
+    }
+
+    @Test
+    void reduceAllShouldCombineEveryAcceptedKey() {
+        long all = buffer.reduceAll(k -> true, 0, Long.MAX_VALUE, 0, (acc, b) -> acc + b.sum(), Long::sum);
+        assertThat(all).isEqualTo((long) KEYS * (KEYS - 1) / 2 + 4L * KEYS);
+
+        long lastSeconds = buffer.reduceAll(k -> k.startsWith("svc3/"), 2000, 6000, 0, (acc, b) -> acc + b.sum(), Long::sum);
+        assertThat(lastSeconds).isEqualTo(4L * KEYS / 10);
+
+        long busiest = buffer.reduceAll(k -> true, 0, 2000, Long.MIN_VALUE, (acc, b) -> Math.max(acc, b.sum()), Math::max);
+        assertThat(busiest).isEqualTo(KEYS - 1L);
+    }
+
+    @Test
+    void groupByShouldCombinePerPrefix() {
+        Map<String, Long> perService = buffer.groupBy(k -> true, k -> k.substring(0, k.indexOf('/')), 2000, 6000, 0,
+                (acc, b) -> acc + b.count(), Long::sum);
+
+        assertThat(perService).hasSize(10);
+        assertThat(perService).containsEntry("svc0", 4L * KEYS / 10);
+        assertThat(perService).containsEntry("svc9", 4L * KEYS / 10);
+    }
+
+    @Test
+    void topKShouldReturnLargestKeysFirst() {
+        List<KeyTotal<String>> top = buffer.topK(3, k -> !k.equals("svc9/4999"), 0, Long.MAX_VALUE, 0, (acc, b) -> acc + b.sum());
+
+        assertThat(top).containsExactly(
+                new KeyTotal<>("svc8/4998", 4998 + 4),
+                new KeyTotal<>("svc7/4997", 4997 + 4),
+                new KeyTotal<>("svc6/4996", 4996 + 4));
+        assertThat(buffer.topK(KEYS + 10, k -> true, 0, Long.MAX_VALUE, 0, (acc, b) -> acc + b.sum())).hasSize(KEYS);
+        assertThatThrownBy(() -> buffer.topK(0, k -> true, 0, 1, 0, (acc, b) -> acc))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
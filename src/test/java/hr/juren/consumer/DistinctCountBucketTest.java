@@ -0,0 +1,56 @@
+package hr.juren.consumer;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DistinctCountBucketTest {
+
+    @Test
+    void estimateShouldStayWithinThreeStandardErrors() {
+        var sketch = new DistinctCountBucket();
+        sketch.clear(0);
+        for (long id = 0; id < 100_000; id++)
+            sketch.aggregate(new LongValue(0, id));
+        for (long id = 0; id < 100_000; id += 3)
+            sketch.aggregate(new LongValue(0, id)); // repeats do not count
+
+        assertThat((double) sketch.estimate()).isBetween(100_000 * (1 - 3 * 0.0163), 100_000 * (1 + 3 * 0.0163));
+    }
+
+    @Test
+    void smallCountsShouldBeNearlyExact() {
+        var sketch = new DistinctCountBucket();
+        sketch.reset(new LongValue(1000, 42));
+        for (long id = 0; id < 50; id++)
+            sketch.aggregate(new LongValue(1000, id));
+
+        assertThat(sketch.estimate()).isBetween(49L, 52L);
+        sketch.reset(new LongValue(2000, 7));
+        assertThat(sketch.estimate()).isEqualTo(1L);
+    }
+
+    @Test
+    void windowMergeShouldCountUsersSeenInSeveralPeriodsOnce() {
+        var buffer = new AggregableRollingBuffer<String, DistinctCountBucket, LongValue>(DistinctCountBucket::new, 16, 16, 60_000);
+        // 15 minutes, every minute 1000 active users out of 3000, half of them also active the minute before
+        for (int minute = 0; minute < 15; minute++)
+            for (long user = minute * 500L; user < minute * 500L + 1000; user++)
+                buffer.put("tenant", new LongValue(minute * 60_000L + user % 60_000, user % 3000));
+
+        var window = buffer.merge("tenant", 0, 15 * 60_000L, new DistinctCountBucket());
+        assertThat((double) window.estimate()).isBetween(3000 * 0.95, 3000 * 1.05);
+        var lastFiveMinutes = buffer.merge("tenant", 10 * 60_000L, 15 * 60_000L, new DistinctCountBucket());
+        assertThat((double) lastFiveMinutes.estimate()).isBetween(3000 * 0.95, 3000 * 1.05);
+        var oneMinute = buffer.merge("tenant", 14 * 60_000L, 15 * 60_000L, new DistinctCountBucket());
+        assertThat((double) oneMinute.estimate()).isBetween(1000 * 0.95, 1000 * 1.05);
+    }
+
+    @Test
+    void sketchesWithDifferentPrecisionShouldNotMerge() {
+        assertThatThrownBy(() -> new DistinctCountBucket(12).merge(new DistinctCountBucket(10)))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new DistinctCountBucket(3)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
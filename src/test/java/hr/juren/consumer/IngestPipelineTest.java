@@ -0,0 +1,99 @@
+package hr.juren.consumer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class IngestPipelineTest {
+
+    @Test
+    void manyProducersShouldLoseNoValues() throws Exception {
+        var buffer = new AggregableRollingBuffer<String, LongSumBucket, LongValue>(LongSumBucket::new, 64, 64, 1000,
+                BufferOptions.DEFAULT.withAllowedLateness(60_000));
+        var pipeline = new IngestPipeline<>(buffer, 2, 64, IngestPipeline.WaitStrategy.YIELDING);
+        int producers = 8, perProducer = 20_000;
+
+        var pool = Executors.newFixedThreadPool(producers);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            futures.add(pool.submit(() -> {
+                for (int i = 0; i < perProducer; i++)
+                    pipeline.put("key" + (i % 16), new LongValue(1000 + i, producer + 1));
+            }));
+        }
+        for (var f : futures)
+            f.get();
+        pool.shutdown();
+        pipeline.close();
+
+        long total = 0, count = 0;
+        for (int k = 0; k < 16; k++) {
+            total += buffer.reduceToLong("key" + k, 0, Long.MAX_VALUE, 0, (acc, b) -> acc + b.sum());
+            count += buffer.reduceToLong("key" + k, 0, Long.MAX_VALUE, 0, (acc, b) -> acc + b.count());
+        }
+        assertThat(pipeline.rejected()).isZero();
+        assertThat(count).isEqualTo((long) producers * perProducer);
+        assertThat(total).isEqualTo((long) perProducer * (producers * (producers + 1) / 2));
+    }
+
+    @Test
+    void outOfOrderValuesShouldBeCountedAsRejectedWithoutStoppingTheConsumer() throws Exception {
+        var buffer = new AggregableRollingBuffer<String, LongSumBucket, LongValue>(LongSumBucket::new, 8, 8, 1000);
+        var pipeline = new IngestPipeline<>(buffer, 1, 8, IngestPipeline.WaitStrategy.PARKING);
+        pipeline.put("a", new LongValue(2000, 1));
+        pipeline.put("a", new LongValue(1000, 1)); // strict mode rejects it
+        pipeline.put("a", new LongValue(3000, 1));
+        pipeline.close();
+
+        assertThat(pipeline.rejected()).isEqualTo(1L);
+        assertThat(buffer.reduceToLong("a", 0, Long.MAX_VALUE, 0, (acc, b) -> acc + b.count())).isEqualTo(2L);
+        assertThat(pipeline.offer("a", new LongValue(4000, 1))).isFalse();
+        assertThatThrownBy(() -> pipeline.put("a", new LongValue(4000, 1))).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void failingBucketsShouldNotStopTheConsumer() {
+        var buffer = new AggregableRollingBuffer<String, FailingBucket, LongValue>(FailingBucket::new, 8, 8, 1000);
+        var pipeline = new IngestPipeline<>(buffer, 1, 4, IngestPipeline.WaitStrategy.YIELDING);
+        // far more values than ring slots, every failing one must still free its slot
+        for (int i = 0; i < 100; i++)
+            pipeline.put("a", new LongValue(1000 + i, i % 10 == 0 ? -1 : 1));
+        pipeline.close();
+
+        assertThat(pipeline.rejected()).isEqualTo(10L);
+        assertThat(pipeline.lastFailure()).isInstanceOf(IllegalStateException.class);
+        assertThat(buffer.reduceToLong("a", 0, Long.MAX_VALUE, 0, (acc, b) -> acc + b.count)).isEqualTo(90L);
+    }
+
+    // throws on negative values, like a user bucket with a bug
+    static final class FailingBucket implements Bucket<LongValue> {
+        long timestamp;
+        long count;
+
+        @Override
+        public long timestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public void reset(LongValue value) {
+            timestamp = value.timestamp();
+            count = 0;
+            aggregate(value);
+        }
+
+        @Override
+        public void aggregate(LongValue value) {
+            if (value.value() < 0)
+                throw new IllegalStateException("negative value");
+            count++;
+        }
+    }
+}
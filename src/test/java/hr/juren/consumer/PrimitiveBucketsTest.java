@@ -0,0 +1,86 @@
+package hr.juren.consumer;
+
+import hr.juren.consumer.BSRollingBuffer.BSBuffer;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class PrimitiveBucketsTest {
+
+    @Test
+    void sumAndCountBucketsShouldAggregatePerPeriod() {
+        var sums = new BSBuffer<LongSumBucket, LongValue>(4, 4, 1000, LongSumBucket::new);
+        var counts = new BSBuffer<CountBucket<LongValue>, LongValue>(4, 4, 1000, CountBucket::new);
+        for (long ts = 1000; ts < 3000; ts += 250) {
+            sums.update(new LongValue(ts, ts / 250));
+            counts.update(new LongValue(ts, 0));
+        }
+
+        assertThat(sums.reduceToLong(0, 2000, 0, (acc, b) -> acc + b.sum())).isEqualTo(4L + 5 + 6 + 7);
+        assertThat(sums.reduceToLong(2000, 3000, 0, (acc, b) -> acc + b.count())).isEqualTo(4L);
+        assertThat(counts.reduceToLong(0, Long.MAX_VALUE, 0, (acc, b) -> acc + b.count())).isEqualTo(8L);
+    }
+
+    @Test
+    void minAndMaxBucketsShouldTrackExtremes() {
+        var min = new MinBucket();
+        var max = new MaxBucket();
+        min.reset(new DoubleValue(1000, 3));
+        max.reset(new DoubleValue(1000, 3));
+        for (double v : new double[]{-1.5, 7, 2}) {
+            min.aggregate(new DoubleValue(1000, v));
+            max.aggregate(new DoubleValue(1000, v));
+        }
+        assertThat(min.min()).isEqualTo(-1.5);
+        assertThat(max.max()).isEqualTo(7.0);
+
+        var empty = new MinBucket();
+        empty.clear(2000);
+        empty.merge(min);
+        assertThat(empty.min()).isEqualTo(-1.5);
+        assertThat(empty.timestamp()).isEqualTo(2000L);
+    }
+
+    @Test
+    void statsBucketShouldMatchTwoPassVarianceAndMergeLikeOneBucket() {
+        Random random = new Random(7);
+        double[] values = new double[1000];
+        for (int i = 0; i < values.length; i++)
+            values[i] = 1e9 + random.nextGaussian() * 3; // large offset breaks a naive sum of squares
+
+        var whole = new StatsBucket();
+        var left = new StatsBucket();
+        var right = new StatsBucket();
+        whole.reset(new DoubleValue(0, values[0]));
+        left.reset(new DoubleValue(0, values[0]));
+        right.clear(0);
+        for (int i = 1; i < values.length; i++) {
+            whole.aggregate(new DoubleValue(0, values[i]));
+            if (i < 300) left.aggregate(new DoubleValue(0, values[i]));
+            else right.aggregate(new DoubleValue(0, values[i]));
+        }
+
+        double mean = 0;
+        for (double v : values) mean += v;
+        mean /= values.length;
+        double m2 = 0;
+        for (double v : values) m2 += (v - mean) * (v - mean);
+
+        assertThat(whole.count()).isEqualTo(1000L);
+        assertThat(whole.mean()).isCloseTo(mean, within(1e-6));
+        assertThat(whole.variance()).isCloseTo(m2 / values.length, within(1e-6));
+
+        var merged = new StatsBucket();
+        merged.clear(0);
+        merged.merge(left);
+        merged.merge(right);
+        assertThat(merged.count()).isEqualTo(1000L);
+        assertThat(merged.mean()).isCloseTo(whole.mean(), within(1e-6));
+        assertThat(merged.variance()).isCloseTo(whole.variance(), within(1e-6));
+        assertThat(merged.min()).isEqualTo(whole.min());
+        assertThat(merged.max()).isEqualTo(whole.max());
+    }
+}
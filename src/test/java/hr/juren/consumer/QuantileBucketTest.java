@@ -0,0 +1,70 @@
+package hr.juren.consumer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+class QuantileBucketTest {
+
+    @Test
+    void quantilesShouldStayWithinRelativeAccuracy() {
+        Random random = new Random(11);
+        double[] latencies = new double[10_000];
+        var sketch = new QuantileBucket();
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = Math.exp(random.nextGaussian() * 2 + 3); // log-normal, ~0.1 ms to ~10 s
+            if (i == 0) sketch.reset(new DoubleValue(1000, latencies[i]));
+            else sketch.aggregate(new DoubleValue(1000, latencies[i]));
+        }
+        Arrays.sort(latencies);
+
+        for (double q : new double[]{0, 0.5, 0.9, 0.99, 0.999, 1}) {
+            double exact = latencies[(int) (q * (latencies.length - 1))];
+            assertThat(sketch.quantile(q)).isCloseTo(exact, within(exact * 0.01 + 1e-9));
+        }
+        assertThat(sketch.count()).isEqualTo(10_000L);
+    }
+
+    @Test
+    void resetShouldForgetThePreviousPeriod() {
+        var sketch = new QuantileBucket();
+        sketch.reset(new DoubleValue(1000, 500));
+        sketch.aggregate(new DoubleValue(1000, 900));
+        sketch.reset(new DoubleValue(2000, 3));
+
+        assertThat(sketch.count()).isEqualTo(1L);
+        assertThat(sketch.quantile(0.5)).isCloseTo(3.0, within(0.03));
+        assertThat(sketch.quantile(1)).isCloseTo(3.0, within(0.03));
+    }
+
+    @Test
+    void windowMergeShouldGivePercentilesAcrossBuckets() {
+        var buffer = new AggregableRollingBuffer<String, QuantileBucket, DoubleValue>(QuantileBucket::new, 10, 10, 1000);
+        // 100 values per second, the 1% slow ones all in the last second
+        for (int second = 1; second <= 5; second++)
+            for (int i = 0; i < 100; i++)
+                buffer.put("api", new DoubleValue(second * 1000L + i, second == 5 && i >= 95 ? 2000 : 10 + i % 10));
+
+        var window = buffer.merge("api", 1000, 6000, new QuantileBucket());
+        assertThat(window.count()).isEqualTo(500L);
+        assertThat(window.quantile(0.5)).isCloseTo(14.0, within(0.14));
+        assertThat(window.quantile(0.995)).isCloseTo(2000.0, within(20.0));
+        assertThat(window.timestamp()).isEqualTo(1000L);
+
+        var empty = buffer.merge("missing", 1000, 6000, new QuantileBucket());
+        assertThat(empty.count()).isZero();
+        assertThat(Double.isNaN(empty.quantile(0.5))).isTrue();
+    }
+
+    @Test
+    void sketchesWithDifferentAccuracyShouldNotMerge() {
+        var fine = new QuantileBucket(0.01, 1, 1000);
+        var coarse = new QuantileBucket(0.05, 1, 1000);
+        assertThatThrownBy(() -> fine.merge(coarse)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
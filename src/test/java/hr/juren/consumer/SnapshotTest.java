@@ -0,0 +1,176 @@
+package hr.juren.consumer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SnapshotTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void snapshotShouldRestoreEveryKey() throws IOException {
+        var source = new AggregableRollingBuffer<String, StatsBucket, DoubleValue>(StatsBucket::new, 10, 10, 1000);
+        for (int k = 0; k < 100; k++)
+            for (int second = 1; second <= 5; second++) {
+                source.put("key" + k, new DoubleValue(second * 1000L + 1, k));
+                source.put("key" + k, new DoubleValue(second * 1000L + 2, second));
+            }
+
+        Path file = dir.resolve("full.snapshot");
+        long written = write(file, source, StatsBucket.CODEC, false);
+        assertThat(written).isEqualTo(Files.size(file));
+        // per key: name length and name, first delta from Long.MIN_VALUE in 10 bytes, the others in 2, 40 bytes of
+        // state per bucket and the end of key
+        assertThat(written).isEqualTo(12 + 100 * (4 + 10 + 4 * 2 + 5 * 40 + 1) + 10 * 4 + 90 * 5);
+
+        var restored = new AggregableRollingBuffer<String, StatsBucket, DoubleValue>(StatsBucket::new, 10, 10, 1000);
+        read(file, restored, StatsBucket.CODEC);
+        for (int k = 0; k < 100; k++) {
+            List<StatsBucket> before = buckets(source, "key" + k);
+            List<StatsBucket> after = buckets(restored, "key" + k);
+            assertThat(after).hasSize(5);
+            for (int i = 0; i < 5; i++) {
+                assertThat(after.get(i).timestamp()).isEqualTo(before.get(i).timestamp());
+                assertThat(after.get(i).count()).isEqualTo(before.get(i).count());
+                assertThat(after.get(i).mean()).isEqualTo(before.get(i).mean());
+                assertThat(after.get(i).variance()).isEqualTo(before.get(i).variance());
+                assertThat(after.get(i).max()).isEqualTo(before.get(i).max());
+            }
+        }
+
+        // the restored open bucket keeps aggregating
+        restored.put("key7", new DoubleValue(5003, 100));
+        assertThat(buckets(restored, "key7").get(4).count()).isEqualTo(3);
+    }
+
+    @Test
+    void exportShouldOnlyWriteBucketsClosedSinceTheLastCheckpoint() throws IOException {
+        var source = new AggregableRollingBuffer<String, LongSumBucket, LongValue>(LongSumBucket::new, 10, 10, 1000);
+        source.put("a", new LongValue(1000, 1));
+        source.put("a", new LongValue(2000, 2));
+        source.put("b", new LongValue(1500, 3));
+        write(dir.resolve("0.snapshot"), source, LongSumBucket.CODEC, false);
+
+        source.put("a", new LongValue(2500, 4));
+        source.put("a", new LongValue(3000, 5));
+        source.put("a", new LongValue(4000, 6));
+        write(dir.resolve("1.export"), source, LongSumBucket.CODEC, true);
+
+        source.put("b", new LongValue(6000, 7));
+        source.put("a", new LongValue(5000, 8));
+        write(dir.resolve("2.export"), source, LongSumBucket.CODEC, true);
+        assertThat(write(dir.resolve("3.export"), source, LongSumBucket.CODEC, true)).isEqualTo(12); // header and end marker only
+
+        var restored = new AggregableRollingBuffer<String, LongSumBucket, LongValue>(LongSumBucket::new, 10, 10, 1000);
+        read(dir.resolve("0.snapshot"), restored, LongSumBucket.CODEC);
+        assertThat(sums(restored, "a")).isEqualTo(List.of(1000L, 1L, 2000L, 2L));
+
+        read(dir.resolve("1.export"), restored, LongSumBucket.CODEC);
+        // the open bucket of the snapshot is replaced once closed, 4000 is still open and not exported
+        assertThat(sums(restored, "a")).isEqualTo(List.of(1000L, 1L, 2000L, 6L, 3000L, 5L));
+        assertThat(sums(restored, "b")).isEqualTo(List.of(1500L, 3L));
+
+        read(dir.resolve("2.export"), restored, LongSumBucket.CODEC);
+        assertThat(sums(restored, "a")).isEqualTo(List.of(1000L, 1L, 2000L, 6L, 3000L, 5L, 4000L, 6L));
+        assertThat(sums(restored, "b")).isEqualTo(List.of(1500L, 3L));
+    }
+
+    @Test
+    void snapshotShouldSpanSeveralBufferFlushes() throws IOException {
+        var source = new AggregableRollingBuffer<Integer, LongSumBucket, LongValue>(LongSumBucket::new, 4, 4, 10);
+        for (int k = 0; k < 5000; k++)
+            for (int t = 0; t < 4; t++)
+                source.put(k, new LongValue(t * 10L, k + t));
+
+        Path file = dir.resolve("large.snapshot");
+        assertThat(write(file, source, LongSumBucket.CODEC, false)).isGreaterThan(64 * 1024);
+
+        var restored = new AggregableRollingBuffer<Integer, LongSumBucket, LongValue>(LongSumBucket::new, 4, 4, 10);
+        try (var channel = FileChannel.open(file)) {
+            restored.readSnapshot(channel, LongSumBucket.CODEC, Integer::valueOf);
+        }
+        assertThat(restored.reduceAll(k -> true, 0, Long.MAX_VALUE, 0, (acc, b) -> 1, Long::sum)).isEqualTo(5000);
+        for (int k = 0; k < 5000; k += 499)
+            assertThat(restored.reduceToLong(k, 0, Long.MAX_VALUE, 0, (acc, b) -> acc + b.sum())).isEqualTo(4L * k + 6);
+    }
+
+    @Test
+    void restoredBuffersShouldKeepTheLatenessBound() throws IOException {
+        var options = BufferOptions.DEFAULT.withAllowedLateness(5000);
+        var source = new AggregableRollingBuffer<String, LongSumBucket, LongValue>(LongSumBucket::new, 30, 30, 1000, options);
+        for (long ts = 1000; ts <= 20_000; ts += 1000)
+            source.put("a", new LongValue(ts, 1));
+        Path file = dir.resolve("late.snapshot");
+        write(file, source, LongSumBucket.CODEC, false);
+
+        var restored = new AggregableRollingBuffer<String, LongSumBucket, LongValue>(LongSumBucket::new, 30, 30, 1000, options);
+        read(file, restored, LongSumBucket.CODEC);
+        restored.put("a", new LongValue(12_000, 1)); // 8 s late
+        restored.put("a", new LongValue(16_000, 1)); // 4 s late
+
+        assertThat(restored.dropped("a")).isEqualTo(1);
+        assertThat(restored.reduceToLong("a", 0, Long.MAX_VALUE, 0, (acc, b) -> acc + b.sum())).isEqualTo(21);
+    }
+
+    @Test
+    void readShouldRejectForeignAndTruncatedFiles() throws IOException {
+        var buffer = new AggregableRollingBuffer<String, LongSumBucket, LongValue>(LongSumBucket::new, 10, 10, 1000);
+        buffer.put("a", new LongValue(1000, 1));
+        Path file = dir.resolve("a.snapshot");
+        long written = write(file, buffer, LongSumBucket.CODEC, false);
+
+        var otherPeriod = new AggregableRollingBuffer<String, LongSumBucket, LongValue>(LongSumBucket::new, 10, 10, 500);
+        assertThatThrownBy(() -> read(file, otherPeriod, LongSumBucket.CODEC)).isInstanceOf(IOException.class);
+
+        try (var channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(written - 6);
+        }
+        var restored = new AggregableRollingBuffer<String, LongSumBucket, LongValue>(LongSumBucket::new, 10, 10, 1000);
+        assertThatThrownBy(() -> read(file, restored, LongSumBucket.CODEC)).isInstanceOf(EOFException.class);
+    }
+
+    private static <K, B extends Bucket<V>, V extends TimeStamped> long write(Path file, AggregableRollingBuffer<K, B, V> buffer,
+                                                                           BucketCodec<B> codec, boolean closedOnly) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            return closedOnly ? buffer.exportClosed(channel, codec, String::valueOf)
+                    : buffer.writeSnapshot(channel, codec, String::valueOf);
+        }
+    }
+
+    private static <B extends Bucket<V>, V extends TimeStamped> void read(Path file, AggregableRollingBuffer<String, B, V> buffer,
+                                                                        BucketCodec<B> codec) throws IOException {
+        try (var channel = FileChannel.open(file)) {
+            buffer.readSnapshot(channel, codec, Function.identity());
+        }
+    }
+
+    private static <B extends Bucket<V>, V extends TimeStamped> List<B> buckets(AggregableRollingBuffer<String, B, V> buffer, String key) {
+        List<B> result = new ArrayList<>();
+        buffer.forEach(key, Long.MIN_VALUE, Long.MAX_VALUE, result::add);
+        return result;
+    }
+
+    // timestamp, sum pairs of the key's buckets
+    private static List<Long> sums(AggregableRollingBuffer<String, LongSumBucket, LongValue> buffer, String key) {
+        List<Long> result = new ArrayList<>();
+        buffer.forEach(key, Long.MIN_VALUE, Long.MAX_VALUE, b -> {
+            result.add(b.timestamp());
+            result.add(b.sum());
+        });
+        return result;
+    }
+}
@@ -0,0 +1,110 @@
+package hr.juren.consumer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class StripedRollingBufferTest {
+
+    record TestValue(long timestamp, int amount) implements TimeStamped {}
+
+    static final class SumBucket implements MergeableBucket<SumBucket, TestValue> {
+        long ts;
+        long sum;
+
+        @Override public long timestamp() { return ts; }
+        @Override public void reset(TestValue v) { ts = v.timestamp(); sum = v.amount(); }
+        @Override public void aggregate(TestValue v) { sum += v.amount(); }
+        @Override public void clear(long timestamp) { ts = timestamp; sum = 0; }
+        @Override public void merge(SumBucket other) { sum += other.sum; }
+    }
+
+    @Test
+    void shouldMergeShardsOfTheSamePeriod() throws Exception {
+        var buffer = new StripedRollingBuffer<String, SumBucket, TestValue>(SumBucket::new, 32, 32, 1000, 4);
+        int threads = 8;
+        var start = new CountDownLatch(1);
+        var executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int offset = t;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    // 10 periods, 100 values per period per thread
+                    for (int i = 0; i < 1000; i++)
+                        buffer.put("hot", new TestValue(1000 + i * 10L + offset, 1));
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (var future : futures)
+                future.get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        List<Long> sums = new ArrayList<>();
+        List<Long> timestamps = new ArrayList<>();
+        buffer.iterator("hot", 0).forEachRemaining(b -> {
+            sums.add(b.sum);
+            timestamps.add(b.ts);
+        });
+        assertThat(sums).containsExactly(800L, 800L, 800L, 800L, 800L, 800L, 800L, 800L, 800L, 800L);
+        assertThat(timestamps.get(0) / 1000).isEqualTo(1L); // shards shared by two threads start at either value
+        assertThat(buffer.reduceToLong("hot", 3000, 6000, 0, (acc, b) -> acc + b.sum)).isEqualTo(2400L);
+    }
+
+    @Test
+    void singleWriterShouldReadLikeAPlainBuffer() {
+        var buffer = new StripedRollingBuffer<String, SumBucket, TestValue>(SumBucket::new, 8, 4, 1000, 2);
+        for (int second = 1; second <= 6; second++)
+            buffer.put("A", new TestValue(second * 1000L + 1, second));
+
+        List<Long> sums = new ArrayList<>();
+        buffer.forEach("A", 0, Long.MAX_VALUE, b -> sums.add(b.sum));
+        assertThat(sums).containsExactly(3L, 4L, 5L, 6L);
+        assertThat(buffer.iterator("missing", 0).hasNext()).isFalse();
+    }
+
+    @Test
+    void quietShardShouldNotExposePeriodsOlderThanTheWindow() throws Exception {
+        var buffer = new StripedRollingBuffer<String, SumBucket, TestValue>(SumBucket::new, 8, 3, 1000, 2);
+        var quiet = new Thread(() -> {
+            for (int period = 1; period <= 2; period++)
+                buffer.put("A", new TestValue(period * 1000L + 500, 100));
+        });
+        quiet.start();
+        quiet.join();
+        var busy = new Thread(() -> {
+            for (int period = 3; period <= 10; period++)
+                buffer.put("A", new TestValue(period * 1000L + 500, 1));
+        });
+        busy.start();
+        busy.join();
+
+        List<Long> timestamps = new ArrayList<>();
+        List<Long> sums = new ArrayList<>();
+        buffer.forEach("A", 0, Long.MAX_VALUE, b -> {
+            timestamps.add(b.ts);
+            sums.add(b.sum);
+        });
+        assertThat(timestamps).containsExactly(8500L, 9500L, 10500L);
+        assertThat(sums).containsExactly(1L, 1L, 1L);
+        assertThat(buffer.reduceToLong("A", 0, 9000, 0, (acc, b) -> acc + b.sum)).isEqualTo(1L);
+    }
+
+    @Test
+    void shardsMustBePositive() {
+        assertThatThrownBy(() -> new StripedRollingBuffer<String, SumBucket, TestValue>(SumBucket::new, 8, 4, 1000, 0))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
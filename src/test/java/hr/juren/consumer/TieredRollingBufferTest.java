@@ -0,0 +1,77 @@
+package hr.juren.consumer;
+
+import hr.juren.consumer.TieredRollingBuffer.Tier;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TieredRollingBufferTest {
+
+    record TestValue(long timestamp, int amount) implements TimeStamped {}
+
+    static final class SumBucket implements MergeableBucket<SumBucket, TestValue> {
+        long ts;
+        long sum;
+
+        @Override public long timestamp() { return ts; }
+        @Override public void reset(TestValue v) { ts = v.timestamp(); sum = v.amount(); }
+        @Override public void aggregate(TestValue v) { sum += v.amount(); }
+        @Override public void clear(long timestamp) { ts = timestamp; sum = 0; }
+        @Override public void merge(SumBucket other) { sum += other.sum; }
+    }
+
+    @Test
+    void evictedBucketsShouldRollUpIntoCoarserTier() {
+        var buffer = new TieredRollingBuffer<String, SumBucket, TestValue>(SumBucket::new,
+                new Tier(4, 1000), new Tier(4, 4000));
+
+        for (int second = 1; second <= 10; second++)
+            buffer.put("A", new TestValue(second * 1000L, second));
+
+        // fine tier keeps seconds 7..10, seconds 1..6 were merged into 4s buckets [0, 4000) and [4000, 8000)
+        assertThat(sums(buffer.iterator("A", 0, 0))).containsExactly(7L, 8L, 9L, 10L);
+        assertThat(sums(buffer.iterator("A", 1, 0))).containsExactly(6L, 15L);
+        assertThat(timestamps(buffer.iterator("A", 1, 0))).containsExactly(1000L, 4000L);
+
+        // every value is counted exactly once across the tiers
+        long total = 0;
+        for (var it = buffer.iterator("A", 0); it.hasNext(); )
+            total += it.next().sum;
+        assertThat(total).isEqualTo(55L);
+    }
+
+    @Test
+    void coarsestTierShouldDropItsOwnEvictions() {
+        var buffer = new TieredRollingBuffer<String, SumBucket, TestValue>(SumBucket::new,
+                new Tier(2, 1000), new Tier(2, 2000));
+
+        for (int second = 1; second <= 12; second++)
+            buffer.put("A", new TestValue(second * 1000L, 1));
+
+        assertThat(timestamps(buffer.iterator("A", 0))).containsExactly(8000L, 10000L, 11000L, 12000L);
+    }
+
+    @Test
+    void tierPeriodsMustBeIncreasingMultiples() {
+        assertThatThrownBy(() -> new TieredRollingBuffer<String, SumBucket, TestValue>(SumBucket::new,
+                new Tier(4, 1000), new Tier(4, 1500)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static List<Long> sums(Iterator<SumBucket> it) {
+        List<Long> result = new ArrayList<>();
+        it.forEachRemaining(b -> result.add(b.sum));
+        return result;
+    }
+
+    private static List<Long> timestamps(Iterator<SumBucket> it) {
+        List<Long> result = new ArrayList<>();
+        it.forEachRemaining(b -> result.add(b.ts));
+        return result;
+    }
+}
@@ -0,0 +1,169 @@
+package hr.juren.consumer;
+
+import hr.juren.consumer.BSRollingBuffer.BSBuffer;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TimingWheelTest {
+
+    record TestValue(long timestamp, int amount) implements TimeStamped {}
+
+    static final class SumBucket implements MergeableBucket<SumBucket, TestValue> {
+        long ts;
+        long sum;
+
+        @Override public long timestamp() { return ts; }
+        @Override public void reset(TestValue v) { ts = v.timestamp(); sum = v.amount(); }
+        @Override public void aggregate(TestValue v) { sum += v.amount(); }
+        @Override public void clear(long timestamp) { ts = timestamp; sum = 0; }
+        @Override public void merge(SumBucket other) { sum += other.sum; }
+    }
+
+    @Test
+    void shouldRunRescheduledTaskUntilItStops() throws Exception {
+        try (var wheel = new TimingWheel(1, 8)) {
+            var runs = new CountDownLatch(5);
+            long start = System.currentTimeMillis();
+            wheel.schedule(now -> {
+                runs.countDown();
+                return runs.getCount() == 0 ? -1 : now + 3;
+            }, start + 5);
+
+            assertThat(runs.await(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(System.currentTimeMillis() - start).isGreaterThanOrEqualTo(5L + 4 * 3);
+        }
+    }
+
+    @Test
+    void failingTaskShouldBeReportedAndRunAgain() throws Exception {
+        try (var wheel = new TimingWheel(1, 8)) {
+            var runs = new AtomicInteger();
+            var recovered = new CountDownLatch(1);
+            wheel.schedule(now -> {
+                if (runs.incrementAndGet() == 1)
+                    throw new IllegalStateException("first run fails");
+                recovered.countDown();
+                return -1;
+            }, System.currentTimeMillis() + 2);
+
+            assertThat(recovered.await(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(wheel.failures()).isEqualTo(1L);
+            assertThat(wheel.lastFailure()).isInstanceOf(IllegalStateException.class);
+        }
+    }
+
+    @Test
+    void wheelShouldFollowItsTimeSource() throws Exception {
+        var time = new AtomicLong(1_000);
+        try (var wheel = new TimingWheel(1, 8, time::get)) {
+            var ran = new CountDownLatch(1);
+            wheel.schedule(now -> {
+                ran.countDown();
+                return -1;
+            }, 1_100);
+
+            assertThat(ran.await(50, TimeUnit.MILLISECONDS)).isFalse();
+            time.set(1_100);
+            assertThat(ran.await(5, TimeUnit.SECONDS)).isTrue();
+        }
+    }
+
+    @Test
+    void coarseTimeSourceShouldTrailSystemClock() throws Exception {
+        try (var clock = new CoarseTimeSource(1)) {
+            long before = System.currentTimeMillis();
+            Thread.sleep(20);
+            long coarse = clock.millis();
+            assertThat(coarse).isGreaterThanOrEqualTo(before);
+            assertThat(System.currentTimeMillis() - coarse).isLessThan(1_000L);
+        }
+    }
+
+    @Test
+    void clockDrivenBufferShouldWriteEmptyBucketForEverySkippedPeriod() {
+        try (var wheel = new TimingWheel(1, 64)) {
+            var buffer = new BSBuffer<SumBucket, TestValue>(32, 32, 1000, SumBucket::new,
+                    BufferOptions.DEFAULT.withRotationTimer(wheel));
+            long base = (System.currentTimeMillis() / 1000 - 10) * 1000;
+            buffer.update(new TestValue(base + 10, 1));
+            buffer.update(new TestValue(base + 3500, 4));
+
+            List<Long> sums = new ArrayList<>();
+            List<Long> timestamps = new ArrayList<>();
+            buffer.forEach(base, base + 4000, b -> {
+                sums.add(b.sum);
+                timestamps.add(b.ts);
+            });
+            assertThat(sums).containsExactly(1L, 0L, 0L, 4L);
+            assertThat(timestamps).containsExactly(base, base + 1000, base + 2000, base + 3000);
+        }
+    }
+
+    @Test
+    void silentKeyShouldKeepRotating() throws Exception {
+        try (var wheel = new TimingWheel(1, 64)) {
+            var buffer = new BSBuffer<SumBucket, TestValue>(64, 64, 20, SumBucket::new,
+                    BufferOptions.DEFAULT.withRotationTimer(wheel));
+            long written = System.currentTimeMillis();
+            buffer.update(new TestValue(written, 7));
+
+            long deadline = written + 5_000;
+            long newest = written;
+            while (newest < written + 100 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+                newest = buffer.reduceToLong(0, Long.MAX_VALUE, 0, (acc, b) -> b.ts);
+            }
+            assertThat(newest).isGreaterThanOrEqualTo(written + 100);
+            assertThat(buffer.reduceToLong(0, Long.MAX_VALUE, 0, (acc, b) -> acc + b.sum)).isEqualTo(7L);
+        }
+    }
+
+    @Test
+    void rotationShouldOutliveAFailingListener() throws Exception {
+        var failuresLeft = new AtomicInteger();
+        BucketListener<SumBucket> listener = new BucketListener<>() {
+            @Override
+            public void onClose(SumBucket bucket) {
+                if (failuresLeft.getAndDecrement() > 0)
+                    throw new IllegalStateException("listener failed");
+            }
+        };
+        try (var wheel = new TimingWheel(1, 64)) {
+            var buffer = new BSBuffer<SumBucket, TestValue>(64, 64, 20, SumBucket::new,
+                    BufferOptions.DEFAULT.withRotationTimer(wheel), null, listener);
+            long written = System.currentTimeMillis();
+            buffer.update(new TestValue(written, 7));
+            failuresLeft.set(1);
+
+            long deadline = written + 5_000;
+            long newest = written;
+            while (newest < written + 100 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+                newest = buffer.reduceToLong(0, Long.MAX_VALUE, 0, (acc, b) -> b.ts);
+            }
+            assertThat(newest).isGreaterThanOrEqualTo(written + 100);
+            assertThat(wheel.failures()).isEqualTo(1L);
+        }
+    }
+
+    @Test
+    void clockDrivenRotationShouldRequireMergeableBuckets() {
+        try (var wheel = new TimingWheel(1, 8)) {
+            assertThatThrownBy(() -> new BSBuffer<Bucket<TestValue>, TestValue>(4, 4, 1000, () -> new Bucket<>() {
+                @Override public long timestamp() { return 0; }
+                @Override public void reset(TestValue value) { }
+                @Override public void aggregate(TestValue value) { }
+            }, BufferOptions.DEFAULT.withRotationTimer(wheel)))
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+}